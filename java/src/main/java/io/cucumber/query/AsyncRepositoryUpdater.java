@@ -0,0 +1,305 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Envelope;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Updates a {@link Repository} on a dedicated writer thread.
+ * <p>
+ * Envelopes are added to a bounded queue and applied to the repository in
+ * the order they were submitted. The thread that submits an envelope does
+ * not wait for the repository to be updated. When the queue is full, the
+ * {@link OverflowPolicy} decides what happens.
+ * <p>
+ * The repository is updated while it is being queried. To query it in a
+ * consistent state, query the snapshot returned by {@link #flush()}.
+ *
+ * <pre>{@code
+ * Repository repository = Repository.builder().build();
+ * try (AsyncRepositoryUpdater updater = new AsyncRepositoryUpdater(repository)) {
+ *     updater.update(envelope);
+ *     Query query = new Query(updater.flush());
+ * }
+ * }</pre>
+ */
+public final class AsyncRepositoryUpdater implements AutoCloseable {
+
+    private static final int MAX_BATCH_SIZE = 256;
+    /**
+     * Added to the queue when the updater is closed, stops the writer once
+     * all envelopes before it were applied.
+     */
+    private static final Object CLOSE = new Object();
+
+    private final Repository repository;
+    private final BlockingQueue<Object> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writer;
+    private final AtomicLong submitted = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    private long applied;
+    // Envelopes are submitted holding the read lock, so none can be queued
+    // after CLOSE
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed;
+    private volatile @Nullable RuntimeException failure;
+
+    public AsyncRepositoryUpdater(Repository repository) {
+        this(repository, AsyncRepositoryUpdater::newDaemonThread, 1024, OverflowPolicy.BLOCK);
+    }
+
+    private static Thread newDaemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "cucumber-query-repository-updater");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @param repository     to update
+     * @param threadFactory  used to create the writer thread, the writer
+     *                       does not hold locks while waiting and may be
+     *                       a virtual thread
+     * @param capacity       the maximum number of envelopes in the queue
+     * @param overflowPolicy applied when the queue is full
+     */
+    public AsyncRepositoryUpdater(Repository repository, ThreadFactory threadFactory, int capacity, OverflowPolicy overflowPolicy) {
+        this.repository = requireNonNull(repository);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = requireNonNull(overflowPolicy);
+        this.writer = requireNonNull(threadFactory).newThread(this::drain);
+        this.writer.start();
+    }
+
+    /**
+     * Submits an envelope to be applied to the repository.
+     *
+     * @throws IllegalStateException when the updater was closed, or when the
+     *                               queue is full and the overflow policy is
+     *                               {@link OverflowPolicy#FAIL}
+     */
+    public void update(Envelope envelope) {
+        requireNonNull(envelope);
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The updater was closed");
+            }
+            submit(envelope);
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    private void submit(Envelope envelope) {
+        // Counted before it is queued, so it is never applied before it was
+        // submitted
+        submitted.incrementAndGet();
+        if (queue.offer(envelope)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(envelope);
+                } catch (InterruptedException e) {
+                    withdraw();
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            case DROP:
+                withdraw();
+                return;
+            case FAIL:
+            default:
+                withdraw();
+                throw new IllegalStateException("The queue of " + (queue.size() + queue.remainingCapacity()) + " envelopes is full");
+        }
+    }
+
+    /**
+     * Withdraws an envelope that was counted as submitted but not queued.
+     */
+    private void withdraw() {
+        lock.lock();
+        try {
+            submitted.decrementAndGet();
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all envelopes submitted before this method was invoked are
+     * applied to the repository.
+     * <p>
+     * The snapshot contains at least these envelopes, and may contain
+     * envelopes that were submitted concurrently.
+     *
+     * @return a snapshot of the repository
+     * @throws IllegalStateException when the repository could not be updated
+     * @see Repository#snapshot()
+     */
+    public Repository flush() throws InterruptedException {
+        long target = submitted.get();
+        lock.lock();
+        try {
+            while (applied < Math.min(target, submitted.get())) {
+                progress.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        throwIfFailed();
+        // Updates hold the lock of the repository, so this is a state in
+        // between two envelopes
+        return repository.snapshot();
+    }
+
+    /**
+     * Waits until all submitted envelopes are applied to the repository and
+     * the queue is empty.
+     *
+     * @return true if the queue became empty before the timeout elapsed
+     * @throws IllegalStateException when the repository could not be updated
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (applied < submitted.get()) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = progress.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        throwIfFailed();
+        return true;
+    }
+
+    private void throwIfFailed() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw new IllegalStateException("The repository could not be updated", failure);
+        }
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean open = true;
+        while (open) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // Only closing the updater stops the writer
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            open = apply(batch);
+        }
+    }
+
+    /**
+     * @return false when the batch contained {@link #CLOSE}
+     */
+    private boolean apply(List<Object> batch) {
+        boolean open = true;
+        long count = 0;
+        for (Object element : batch) {
+            if (element == CLOSE) {
+                open = false;
+                continue;
+            }
+            count++;
+            try {
+                repository.update((Envelope) element);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        lock.lock();
+        try {
+            applied += count;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        batch.clear();
+        return open;
+    }
+
+    /**
+     * Applies all submitted envelopes to the repository and stops the writer
+     * thread.
+     * <p>
+     * Envelopes submitted after the updater started closing are rejected.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            while (true) {
+                try {
+                    // Waits for the writer to make room when the queue is full
+                    queue.put(CLOSE);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum OverflowPolicy {
+
+        /**
+         * Wait until there is space in the queue.
+         */
+        BLOCK,
+
+        /**
+         * Discard the envelope. The repository will be incomplete.
+         */
+        DROP,
+
+        /**
+         * Throw an {@link IllegalStateException}.
+         */
+        FAIL
+    }
+}
@@ -0,0 +1,139 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The body of an {@link io.cucumber.messages.types.Attachment} as retained
+ * by the {@link Repository}, possibly compressed.
+ * <p>
+ * A body can be shared by several attachments with the same content.
+ *
+ * @see Repository.RepositoryFeature#COMPRESS_ATTACHMENTS
+ * @see Repository.RepositoryFeature#DEDUPLICATE_ATTACHMENTS
+ */
+final class AttachmentBody {
+
+    private final @Nullable String content;
+    private final byte @Nullable [] compressedContent;
+    private final int length;
+
+    private AttachmentBody(@Nullable String content, byte @Nullable [] compressedContent, int length) {
+        this.content = content;
+        this.compressedContent = compressedContent;
+        this.length = length;
+    }
+
+    static AttachmentBody of(String content) {
+        return new AttachmentBody(content, null, 0);
+    }
+
+    /**
+     * Compresses the content of an attachment.
+     * <p>
+     * The content is not compressed when compression would not make it
+     * smaller.
+     */
+    static AttachmentBody compressed(String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        byte[] compressed = deflate(bytes);
+        if (compressed.length >= bytes.length) {
+            return of(content);
+        }
+        return new AttachmentBody(null, compressed, bytes.length);
+    }
+
+    /**
+     * The SHA-256 hash of the content of an attachment, as a hex string.
+     */
+    static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                offset += inflater.inflate(bytes, offset, length - offset);
+            }
+            return offset == length ? bytes : Arrays.copyOf(bytes, offset);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Could not decompress attachment body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The content, decompressed if needed.
+     */
+    String content() {
+        if (content != null) {
+            return content;
+        }
+        return new String(inflate(requireCompressedContent(), length), UTF_8);
+    }
+
+    private byte[] requireCompressedContent() {
+        if (compressedContent == null) {
+            throw new IllegalStateException("Body has no content");
+        }
+        return compressedContent;
+    }
+
+    /**
+     * The number of bytes retained by this body.
+     */
+    long retainedBytes() {
+        return content != null ? retainedBytes(content) : requireCompressedContent().length;
+    }
+
+    /**
+     * The number of bytes retained by the characters of a string. Assumes
+     * compact strings, one byte per character when every character is
+     * Latin-1, otherwise two.
+     */
+    static long retainedBytes(String content) {
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) > 0xFF) {
+                return 2L * content.length();
+            }
+        }
+        return content.length();
+    }
+}
@@ -0,0 +1,320 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Background;
+import io.cucumber.messages.types.Comment;
+import io.cucumber.messages.types.DataTable;
+import io.cucumber.messages.types.DocString;
+import io.cucumber.messages.types.Examples;
+import io.cucumber.messages.types.Feature;
+import io.cucumber.messages.types.FeatureChild;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.Pickle;
+import io.cucumber.messages.types.PickleDocString;
+import io.cucumber.messages.types.PickleStep;
+import io.cucumber.messages.types.PickleStepArgument;
+import io.cucumber.messages.types.PickleTable;
+import io.cucumber.messages.types.PickleTableCell;
+import io.cucumber.messages.types.PickleTableRow;
+import io.cucumber.messages.types.PickleTag;
+import io.cucumber.messages.types.Rule;
+import io.cucumber.messages.types.RuleChild;
+import io.cucumber.messages.types.Scenario;
+import io.cucumber.messages.types.Step;
+import io.cucumber.messages.types.TableCell;
+import io.cucumber.messages.types.TableRow;
+import io.cucumber.messages.types.Tag;
+import io.cucumber.messages.types.TestCase;
+import io.cucumber.messages.types.TestStep;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Replaces equal strings in messages with a shared instance.
+ * <p>
+ * Pickles, test cases and Gherkin documents repeat the same URIs, keywords,
+ * tag names, step texts and ids many times over. Because messages are
+ * immutable, messages are recreated with the shared instances.
+ * <p>
+ * Keeping a value costs more than replacing a single duplicate saves. So
+ * values that are rarely repeated, such as locations and the ids of test
+ * cases and test steps, are not kept. Of the others at most
+ * {@value #MAX_CANONICAL_VALUES} are kept, the value that was least
+ * recently used is evicted first.
+ *
+ * @see Repository.RepositoryFeature#CANONICALIZE_VALUES
+ */
+final class Canonicalizer {
+
+    static final int MAX_CANONICAL_VALUES = 1 << 16;
+    // A linked hash map entry and its slot in the table
+    private static final long ENTRY_BYTES = 48;
+
+    private final Map<Object, Object> canonical = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            return size() > MAX_CANONICAL_VALUES;
+        }
+    };
+    private long deduplicatedCount;
+    private long deduplicatedBytes;
+
+    Canonicalizer() {
+
+    }
+
+    private Canonicalizer(Canonicalizer source) {
+        this.deduplicatedCount = source.deduplicatedCount;
+        this.deduplicatedBytes = source.deduplicatedBytes();
+    }
+
+    /**
+     * Copies the statistics, but not the canonical values, of this
+     * canonicalizer.
+     */
+    Canonicalizer copyStatistics() {
+        return new Canonicalizer(this);
+    }
+
+    /**
+     * The number of values that were replaced by a shared instance.
+     */
+    long deduplicatedCount() {
+        return deduplicatedCount;
+    }
+
+    /**
+     * The estimated number of bytes no longer retained because values were
+     * replaced by a shared instance, less the bytes retained by the canonical
+     * values. May be negative when few values were replaced.
+     */
+    long deduplicatedBytes() {
+        return deduplicatedBytes - canonical.size() * ENTRY_BYTES;
+    }
+
+    Pickle pickle(Pickle pickle) {
+        return new Pickle(
+                string(pickle.getId()),
+                string(pickle.getUri()),
+                pickle.getLocation().orElse(null),
+                string(pickle.getName()),
+                string(pickle.getLanguage()),
+                list(pickle.getSteps(), this::pickleStep),
+                list(pickle.getTags(), this::pickleTag),
+                list(pickle.getAstNodeIds(), this::string)
+        );
+    }
+
+    private PickleStep pickleStep(PickleStep pickleStep) {
+        return new PickleStep(
+                pickleStep.getArgument().map(this::pickleStepArgument).orElse(null),
+                list(pickleStep.getAstNodeIds(), this::string),
+                string(pickleStep.getId()),
+                pickleStep.getType().orElse(null),
+                string(pickleStep.getText())
+        );
+    }
+
+    private PickleStepArgument pickleStepArgument(PickleStepArgument argument) {
+        return new PickleStepArgument(
+                argument.getDocString().map(this::pickleDocString).orElse(null),
+                argument.getDataTable().map(this::pickleTable).orElse(null)
+        );
+    }
+
+    private PickleDocString pickleDocString(PickleDocString docString) {
+        return new PickleDocString(
+                docString.getMediaType().map(this::string).orElse(null),
+                string(docString.getContent())
+        );
+    }
+
+    private PickleTable pickleTable(PickleTable table) {
+        return new PickleTable(list(table.getRows(), row ->
+                new PickleTableRow(list(row.getCells(), cell ->
+                        new PickleTableCell(string(cell.getValue()))))));
+    }
+
+    private PickleTag pickleTag(PickleTag tag) {
+        return new PickleTag(string(tag.getName()), string(tag.getAstNodeId()));
+    }
+
+    TestCase testCase(TestCase testCase) {
+        return new TestCase(
+                testCase.getId(),
+                string(testCase.getPickleId()),
+                list(testCase.getTestSteps(), this::testStep),
+                testCase.getTestRunStartedId().map(this::string).orElse(null)
+        );
+    }
+
+    private TestStep testStep(TestStep testStep) {
+        return new TestStep(
+                testStep.getHookId().map(this::string).orElse(null),
+                testStep.getId(),
+                testStep.getPickleStepId().map(this::string).orElse(null),
+                testStep.getStepDefinitionIds().map(ids -> list(ids, this::string)).orElse(null),
+                testStep.getStepMatchArgumentsLists().orElse(null)
+        );
+    }
+
+    GherkinDocument gherkinDocument(GherkinDocument document) {
+        return new GherkinDocument(
+                document.getUri().map(this::string).orElse(null),
+                document.getFeature().map(this::feature).orElse(null),
+                list(document.getComments(), this::comment)
+        );
+    }
+
+    private Comment comment(Comment comment) {
+        return new Comment(comment.getLocation(), string(comment.getText()));
+    }
+
+    private Feature feature(Feature feature) {
+        return new Feature(
+                feature.getLocation(),
+                list(feature.getTags(), this::tag),
+                string(feature.getLanguage()),
+                string(feature.getKeyword()),
+                string(feature.getName()),
+                string(feature.getDescription()),
+                list(feature.getChildren(), this::featureChild)
+        );
+    }
+
+    private FeatureChild featureChild(FeatureChild child) {
+        return new FeatureChild(
+                child.getRule().map(this::rule).orElse(null),
+                child.getBackground().map(this::background).orElse(null),
+                child.getScenario().map(this::scenario).orElse(null)
+        );
+    }
+
+    private Rule rule(Rule rule) {
+        return new Rule(
+                rule.getLocation(),
+                list(rule.getTags(), this::tag),
+                string(rule.getKeyword()),
+                string(rule.getName()),
+                string(rule.getDescription()),
+                list(rule.getChildren(), this::ruleChild),
+                string(rule.getId())
+        );
+    }
+
+    private RuleChild ruleChild(RuleChild child) {
+        return new RuleChild(
+                child.getBackground().map(this::background).orElse(null),
+                child.getScenario().map(this::scenario).orElse(null)
+        );
+    }
+
+    private Background background(Background background) {
+        return new Background(
+                background.getLocation(),
+                string(background.getKeyword()),
+                string(background.getName()),
+                string(background.getDescription()),
+                list(background.getSteps(), this::step),
+                string(background.getId())
+        );
+    }
+
+    private Scenario scenario(Scenario scenario) {
+        return new Scenario(
+                scenario.getLocation(),
+                list(scenario.getTags(), this::tag),
+                string(scenario.getKeyword()),
+                string(scenario.getName()),
+                string(scenario.getDescription()),
+                list(scenario.getSteps(), this::step),
+                list(scenario.getExamples(), this::examples),
+                string(scenario.getId())
+        );
+    }
+
+    private Examples examples(Examples examples) {
+        return new Examples(
+                examples.getLocation(),
+                list(examples.getTags(), this::tag),
+                string(examples.getKeyword()),
+                string(examples.getName()),
+                string(examples.getDescription()),
+                examples.getTableHeader().map(this::tableRow).orElse(null),
+                list(examples.getTableBody(), this::tableRow),
+                string(examples.getId())
+        );
+    }
+
+    private TableRow tableRow(TableRow row) {
+        return new TableRow(
+                row.getLocation(),
+                list(row.getCells(), cell -> new TableCell(cell.getLocation(), string(cell.getValue()))),
+                string(row.getId())
+        );
+    }
+
+    private Step step(Step step) {
+        return new Step(
+                step.getLocation(),
+                string(step.getKeyword()),
+                step.getKeywordType().orElse(null),
+                string(step.getText()),
+                step.getDocString().map(this::docString).orElse(null),
+                step.getDataTable().map(this::dataTable).orElse(null),
+                string(step.getId())
+        );
+    }
+
+    private DocString docString(DocString docString) {
+        return new DocString(
+                docString.getLocation(),
+                docString.getMediaType().map(this::string).orElse(null),
+                string(docString.getContent()),
+                string(docString.getDelimiter())
+        );
+    }
+
+    private DataTable dataTable(DataTable dataTable) {
+        return new DataTable(dataTable.getLocation(), list(dataTable.getRows(), this::tableRow));
+    }
+
+    private Tag tag(Tag tag) {
+        return new Tag(tag.getLocation(), string(tag.getName()), string(tag.getId()));
+    }
+
+
+    private String string(String value) {
+        // Assumes compact strings, the String object and its byte array
+        return canonical(value, 24 + ((16 + value.length() + 7) & ~7));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T canonical(T value, long size) {
+        Object existing = canonical.putIfAbsent(value, value);
+        if (existing == null) {
+            return value;
+        }
+        if (existing != value) {
+            deduplicatedCount++;
+            deduplicatedBytes += size;
+        }
+        return (T) existing;
+    }
+
+    private static <T> List<T> list(List<T> values, Function<T, T> canonical) {
+        if (values.isEmpty()) {
+            return emptyList();
+        }
+        List<T> list = new ArrayList<>(values.size());
+        for (T value : values) {
+            list.add(canonical.apply(value));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,108 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableNavigableMap;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * How test cases were executed concurrently during a test run.
+ * <p>
+ * Includes every attempt of a test case that finished, including those that
+ * were retried. The profile spans from the start of the first test case to
+ * the end of the last test case.
+ *
+ * @see Query#findConcurrencyProfile()
+ */
+public final class ConcurrencyProfile {
+
+    private final NavigableMap<Instant, Integer> runningTestCases;
+    private final Map<String, Duration> busyTimeByWorker;
+    private final Duration duration;
+    private final int maxRunningTestCases;
+
+    ConcurrencyProfile(NavigableMap<Instant, Integer> runningTestCases, Map<String, Duration> busyTimeByWorker, Duration duration, int maxRunningTestCases) {
+        this.runningTestCases = unmodifiableNavigableMap(runningTestCases);
+        this.busyTimeByWorker = unmodifiableMap(busyTimeByWorker);
+        this.duration = duration;
+        this.maxRunningTestCases = maxRunningTestCases;
+    }
+
+    /**
+     * The number of test cases running from each instant until the next.
+     * <p>
+     * The last entry, at the end of the profile, is always zero.
+     */
+    public NavigableMap<Instant, Integer> runningTestCases() {
+        return runningTestCases;
+    }
+
+    /**
+     * The maximum number of test cases running at the same time.
+     */
+    public int maxRunningTestCases() {
+        return maxRunningTestCases;
+    }
+
+    /**
+     * The time from the start of the first test case to the end of the last
+     * test case.
+     */
+    public Duration duration() {
+        return duration;
+    }
+
+    /**
+     * The time each worker spent executing test cases, by worker id.
+     * <p>
+     * Test cases without a worker id are not included.
+     */
+    public Map<String, Duration> busyTimeByWorker() {
+        return busyTimeByWorker;
+    }
+
+    /**
+     * The time each worker did not spend executing test cases, by worker id.
+     */
+    public Map<String, Duration> idleTimeByWorker() {
+        return busyTimeByWorker.entrySet().stream()
+                .collect(toMap(
+                        Map.Entry::getKey,
+                        entry -> duration.minus(entry.getValue()),
+                        (a, b) -> a,
+                        LinkedHashMap::new));
+    }
+
+    /**
+     * The fraction of the available worker time that was spent executing
+     * test cases, between 0 and 1.
+     * <p>
+     * The number of available workers is the number of distinct worker ids,
+     * or when test cases have no worker id, the maximum number of test cases
+     * running at the same time.
+     */
+    public double parallelEfficiency() {
+        long workers = busyTimeByWorker.isEmpty() ? maxRunningTestCases : busyTimeByWorker.size();
+        if (workers == 0 || duration.isZero()) {
+            return 0;
+        }
+        double busy = 0;
+        @Nullable Instant previous = null;
+        int running = 0;
+        for (Map.Entry<Instant, Integer> entry : runningTestCases.entrySet()) {
+            if (previous != null) {
+                busy += (double) running * Duration.between(previous, entry.getKey()).toNanos();
+            }
+            previous = entry.getKey();
+            running = entry.getValue();
+        }
+        return Math.min(1, busy / ((double) workers * duration.toNanos()));
+    }
+}
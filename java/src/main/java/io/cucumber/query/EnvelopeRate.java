@@ -0,0 +1,63 @@
+package io.cucumber.query;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rate at which envelopes are applied to a repository.
+ * <p>
+ * The envelope count is sampled at most once a second as envelopes are
+ * applied. Samples older than the window are discarded, except for the
+ * newest of them. So the rate can be read without modifying the samples.
+ * <p>
+ * Not thread safe, guarded by the repository.
+ *
+ * @see RepositoryMetricsMXBean#getEnvelopesPerSecond()
+ */
+final class EnvelopeRate {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Oldest first
+    private final Deque<Sample> samples = new ArrayDeque<>();
+
+    EnvelopeRate() {
+        samples.add(new Sample(System.nanoTime(), 0));
+    }
+
+    void sample(long envelopeCount) {
+        long nanos = System.nanoTime();
+        if (nanos - samples.getLast().nanos < SAMPLE_INTERVAL_NANOS) {
+            return;
+        }
+        samples.addLast(new Sample(nanos, envelopeCount));
+        // Keep the newest sample that is at least a window old
+        Sample oldest = samples.removeFirst();
+        while (nanos - samples.getFirst().nanos >= WINDOW_NANOS) {
+            oldest = samples.removeFirst();
+        }
+        samples.addFirst(oldest);
+    }
+
+    double perSecond(long envelopeCount) {
+        long nanos = System.nanoTime();
+        Iterator<Sample> iterator = samples.iterator();
+        Sample since = iterator.next();
+        while (iterator.hasNext()) {
+            Sample next = iterator.next();
+            if (nanos - next.nanos < WINDOW_NANOS) {
+                break;
+            }
+            since = next;
+        }
+        long elapsed = nanos - since.nanos;
+        return elapsed == 0 ? 0 : (envelopeCount - since.envelopeCount) * 1e9 / elapsed;
+    }
+
+    private record Sample(long nanos, long envelopeCount) {
+
+    }
+}
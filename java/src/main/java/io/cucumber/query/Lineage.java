@@ -20,64 +20,84 @@ import static java.util.Objects.requireNonNull;
  * A structure containing all ancestors of a given
  * {@linkplain GherkinDocument GherkinDocument  element} or
  * {@link  io.cucumber.messages.types.Pickle}.
+ * <p>
+ * A lineage refers to the lineage of its parent element. Lineages of the
+ * same document share their parents, so they are usually compared by
+ * identity. Equality is nonetheless based on the elements, so lineages of
+ * equal documents, for example in different repositories, are equal.
  *
  * @see LineageReducer
  */
 public final class Lineage {
 
-    private final GherkinDocument document;
-    private final @Nullable Feature feature;
-    private final @Nullable Rule rule;
-    private final @Nullable Scenario scenario;
-    private final @Nullable Examples examples;
-    private final @Nullable Integer examplesIndex;
-    private final @Nullable TableRow example;
-    private final @Nullable Integer exampleIndex;
+    private static final int NO_INDEX = -1;
+
+    // Each lineage refers to its parent and adds one element
+    private final @Nullable Lineage parent;
+    private final Object element;
+    private final int index;
+    private final int hash;
 
     Lineage(GherkinDocument document) {
-        this(document, null, null, null, null, null, null, null);
+        this(document, null, NO_INDEX);
     }
 
     Lineage(Lineage parent, Feature feature) {
-        this(parent.document, feature, null, null, null, null, null, null);
+        this(feature, requireNonNull(parent), NO_INDEX);
     }
 
     Lineage(Lineage parent, Rule rule) {
-        this(parent.document, parent.feature, rule, null, null, null, null, null);
+        this(rule, requireNonNull(parent), NO_INDEX);
     }
 
     Lineage(Lineage parent, Scenario scenario) {
-        this(parent.document, parent.feature, parent.rule, scenario, null, null, null, null);
+        this(scenario, requireNonNull(parent), NO_INDEX);
     }
 
     Lineage(Lineage parent, Examples examples, int examplesIndex) {
-        this(parent.document, parent.feature, parent.rule, parent.scenario, examples, examplesIndex, null, null);
+        this(examples, requireNonNull(parent), examplesIndex);
     }
 
     Lineage(Lineage parent, TableRow example, int exampleIndex) {
-        this(parent.document, parent.feature, parent.rule, parent.scenario, parent.examples, parent.examplesIndex, example, exampleIndex);
+        this(example, requireNonNull(parent), exampleIndex);
+    }
+
+    private Lineage(Object element, @Nullable Lineage parent, int index) {
+        this.parent = parent;
+        this.element = requireNonNull(element);
+        this.index = index;
+        // Avoid hashing the whole element, equal elements have equal ids
+        this.hash = 31 * (31 * (parent == null ? 0 : parent.hash) + idOf(element).hashCode()) + index;
     }
 
-    private Lineage(GherkinDocument document, @Nullable Feature feature, @Nullable Rule rule, @Nullable Scenario scenario, @Nullable Examples examples, @Nullable Integer examplesIndex, @Nullable TableRow example, @Nullable Integer exampleIndex) {
-        this.document = requireNonNull(document);
-        this.feature = feature;
-        this.rule = rule;
-        this.scenario = scenario;
-        this.examples = examples;
-        this.examplesIndex = examplesIndex;
-        this.example = example;
-        this.exampleIndex = exampleIndex;
+    private <T> @Nullable T find(Class<T> type) {
+        for (Lineage lineage = this; lineage != null; lineage = lineage.parent) {
+            if (type.isInstance(lineage.element)) {
+                return type.cast(lineage.element);
+            }
+        }
+        return null;
+    }
+
+    private @Nullable Lineage findLineageOf(Class<?> type) {
+        for (Lineage lineage = this; lineage != null; lineage = lineage.parent) {
+            if (type.isInstance(lineage.element)) {
+                return lineage;
+            }
+        }
+        return null;
     }
 
     public GherkinDocument document() {
-        return document;
+        return requireNonNull(find(GherkinDocument.class));
     }
 
     public Optional<Feature> feature() {
-        return Optional.ofNullable(feature);
+        return Optional.ofNullable(find(Feature.class));
     }
 
     public Optional<Background> background() {
+        Feature feature = find(Feature.class);
         if (feature == null) {
             return Optional.empty();
         }
@@ -89,10 +109,11 @@ public final class Lineage {
     }
 
     public Optional<Rule> rule() {
-        return Optional.ofNullable(rule);
+        return Optional.ofNullable(find(Rule.class));
     }
 
     public Optional<Background> ruleBackground() {
+        Rule rule = find(Rule.class);
         if (rule == null) {
             return Optional.empty();
         }
@@ -104,23 +125,25 @@ public final class Lineage {
     }
     
     public Optional<Scenario> scenario() {
-        return Optional.ofNullable(scenario);
+        return Optional.ofNullable(find(Scenario.class));
     }
 
     public Optional<Examples> examples() {
-        return Optional.ofNullable(examples);
+        return Optional.ofNullable(find(Examples.class));
     }
 
     public Optional<TableRow> example() {
-        return Optional.ofNullable(example);
+        return Optional.ofNullable(find(TableRow.class));
     }
 
     public Optional<Integer> examplesIndex() {
-        return Optional.ofNullable(examplesIndex);
+        return Optional.ofNullable(findLineageOf(Examples.class))
+                .map(lineage -> lineage.index);
     }
 
     public Optional<Integer> exampleIndex() {
-        return Optional.ofNullable(exampleIndex);
+        return Optional.ofNullable(findLineageOf(TableRow.class))
+                .map(lineage -> lineage.index);
     }
 
     @Override
@@ -128,11 +151,31 @@ public final class Lineage {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Lineage that = (Lineage) o;
-        return document.equals(that.document) && Objects.equals(feature, that.feature) && Objects.equals(rule, that.rule) && Objects.equals(scenario, that.scenario) && Objects.equals(examples, that.examples) && Objects.equals(example, that.example) && Objects.equals(examplesIndex, that.examplesIndex) && Objects.equals(exampleIndex, that.exampleIndex);
+        // Lineages of the same document share their parents
+        return hash == that.hash && index == that.index && Objects.equals(parent, that.parent) && element.equals(that.element);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(document, feature, rule, scenario, examples, example, examplesIndex, exampleIndex);
+        return hash;
+    }
+
+    private static Object idOf(Object element) {
+        if (element instanceof GherkinDocument) {
+            return ((GherkinDocument) element).getUri();
+        }
+        if (element instanceof Feature) {
+            return ((Feature) element).getLocation();
+        }
+        if (element instanceof Rule) {
+            return ((Rule) element).getId();
+        }
+        if (element instanceof Scenario) {
+            return ((Scenario) element).getId();
+        }
+        if (element instanceof Examples) {
+            return ((Examples) element).getId();
+        }
+        return ((TableRow) element).getId();
     }
 }
@@ -0,0 +1,26 @@
+package io.cucumber.query;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by JDK Flight Recorder when the lineages of a
+ * {@link io.cucumber.messages.types.GherkinDocument} are created.
+ */
+@Name("io.cucumber.query.Lineages")
+@Label("Lineages")
+@Category({"Cucumber", "Query"})
+@Description("Lineages created for a Gherkin document")
+@StackTrace(false)
+final class LineageEvent extends jdk.jfr.Event {
+
+    @Label("URI")
+    String uri;
+
+    @Label("Elements")
+    int elements;
+
+}
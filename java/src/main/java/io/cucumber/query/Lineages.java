@@ -28,12 +28,20 @@ final class Lineages {
      * @return a map of the document elements to their lineage.
      */
     static Map<String, Lineage> of(GherkinDocument document) {
+        LineageEvent event = new LineageEvent();
+        event.begin();
         Map<String, Lineage> elements = new HashMap<>();
         Lineage lineage = new Lineage(document);
         String uri = document.getUri()
                 .orElseThrow(() -> new IllegalArgumentException("document.uri must not be null"));
         elements.put(uri, lineage);
         document.getFeature().ifPresent(ofFeature(lineage, elements));
+        event.end();
+        if (event.shouldCommit()) {
+            event.uri = uri;
+            event.elements = elements.size();
+            event.commit();
+        }
         return elements;
     }
 
@@ -0,0 +1,29 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * Remembers the result of a query until the {@link Repository} is updated.
+ *
+ * @param <T> the type of the result, should not be modified after creation.
+ */
+final class Memoized<T> {
+
+    private volatile @Nullable Result<T> result;
+
+    T get(long epoch, Supplier<T> supplier) {
+        Result<T> current = result;
+        if (current != null && current.epoch == epoch) {
+            return current.value;
+        }
+        T value = supplier.get();
+        result = new Result<>(epoch, value);
+        return value;
+    }
+
+    private record Result<T>(long epoch, T value) {
+
+    }
+}
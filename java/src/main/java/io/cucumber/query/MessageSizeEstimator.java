@@ -0,0 +1,124 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Attachment;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Estimates the heap retained by messages.
+ * <p>
+ * Assumes a 64-bit JVM with compressed object pointers and compact strings.
+ * Objects are counted once, messages shared between indexes are attributed
+ * to the first index that is estimated. The bodies of attachments are not
+ * included, these are accounted for separately.
+ */
+final class MessageSizeEstimator {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    // Approximation of a PersistentMap entry, its slot in the trie and in
+    // the insertion order
+    private static final int MAP_ENTRY = 32 + 2 * REFERENCE;
+    private static final String MESSAGES_PACKAGE = Attachment.class.getPackageName();
+
+    private static final ClassValue<List<Method>> getters = new ClassValue<>() {
+        @Override
+        protected List<Method> computeValue(Class<?> type) {
+            return stream(type.getDeclaredMethods())
+                    .filter(method -> Modifier.isPublic(method.getModifiers()))
+                    .filter(method -> !Modifier.isStatic(method.getModifiers()))
+                    .filter(method -> method.getParameterCount() == 0)
+                    .filter(method -> method.getName().startsWith("get"))
+                    .collect(toList());
+        }
+    };
+
+    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    long estimate(Map<?, ?> index) {
+        long size = ARRAY_HEADER + (long) index.size() * MAP_ENTRY;
+        for (Map.Entry<?, ?> entry : index.entrySet()) {
+            size += estimate(entry.getValue());
+            size += estimate(entry.getKey());
+        }
+        return size;
+    }
+
+    long estimate(@Nullable Object value) {
+        if (value == null || value instanceof Enum || !visited.add(value)) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + ((String) value).length());
+        }
+        if (value instanceof Long || value instanceof Double) {
+            return align(OBJECT_HEADER + 8);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return align(OBJECT_HEADER + 4);
+        }
+        if (value instanceof Optional) {
+            return estimate(((Optional<?>) value).orElse(null));
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            long size = align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + (long) collection.size() * REFERENCE);
+            for (Object element : collection) {
+                size += estimate(element);
+            }
+            return size;
+        }
+        if (value instanceof StoredAttachment) {
+            return align(OBJECT_HEADER + 2 * REFERENCE) + estimate(((StoredAttachment) value).metadata());
+        }
+        if (value instanceof Lineage) {
+            return align(OBJECT_HEADER + 2 * REFERENCE + 4) + estimate(((Lineage) value).document());
+        }
+        if (MESSAGES_PACKAGE.equals(value.getClass().getPackageName())) {
+            return estimateMessage(value);
+        }
+        return align(OBJECT_HEADER + REFERENCE);
+    }
+
+    private long estimateMessage(Object message) {
+        List<Method> methods = getters.get(message.getClass());
+        long size = align(OBJECT_HEADER + (long) methods.size() * REFERENCE);
+        for (Object property : properties(message, methods)) {
+            size += estimate(property);
+        }
+        return size;
+    }
+
+    private static List<@Nullable Object> properties(Object message, List<Method> methods) {
+        List<@Nullable Object> properties = new ArrayList<>(methods.size());
+        for (Method method : methods) {
+            if (message instanceof Attachment && method.getName().equals("getBody")) {
+                continue;
+            }
+            try {
+                properties.add(method.invoke(message));
+            } catch (ReflectiveOperationException e) {
+                // Not accessible, count only the reference
+            }
+        }
+        return properties;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
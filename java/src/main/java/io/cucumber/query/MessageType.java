@@ -0,0 +1,122 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Envelope;
+
+import java.util.Map;
+
+import static java.util.Arrays.stream;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * The type of message contained in an {@link Envelope}.
+ */
+enum MessageType {
+    ATTACHMENT("attachment"),
+    GHERKIN_DOCUMENT("gherkinDocument"),
+    HOOK("hook"),
+    META("meta"),
+    PARAMETER_TYPE("parameterType"),
+    PARSE_ERROR("parseError"),
+    PICKLE("pickle"),
+    SOURCE("source"),
+    STEP_DEFINITION("stepDefinition"),
+    SUGGESTION("suggestion"),
+    TEST_CASE("testCase"),
+    TEST_CASE_FINISHED("testCaseFinished"),
+    TEST_CASE_STARTED("testCaseStarted"),
+    TEST_RUN_FINISHED("testRunFinished"),
+    TEST_RUN_HOOK_FINISHED("testRunHookFinished"),
+    TEST_RUN_HOOK_STARTED("testRunHookStarted"),
+    TEST_RUN_STARTED("testRunStarted"),
+    TEST_STEP_FINISHED("testStepFinished"),
+    TEST_STEP_STARTED("testStepStarted"),
+    UNDEFINED_PARAMETER_TYPE("undefinedParameterType"),
+    UNKNOWN("unknown");
+
+    private final String key;
+
+    MessageType(String key) {
+        this.key = key;
+    }
+
+    /**
+     * The name of the property holding this message in an {@link Envelope}.
+     */
+    String key() {
+        return key;
+    }
+
+    static MessageType of(Envelope envelope) {
+        // Ordered by frequency in a typical test run
+        if (envelope.getTestStepStarted().isPresent()) {
+            return TEST_STEP_STARTED;
+        }
+        if (envelope.getTestStepFinished().isPresent()) {
+            return TEST_STEP_FINISHED;
+        }
+        if (envelope.getTestCaseStarted().isPresent()) {
+            return TEST_CASE_STARTED;
+        }
+        if (envelope.getTestCaseFinished().isPresent()) {
+            return TEST_CASE_FINISHED;
+        }
+        if (envelope.getAttachment().isPresent()) {
+            return ATTACHMENT;
+        }
+        if (envelope.getPickle().isPresent()) {
+            return PICKLE;
+        }
+        if (envelope.getTestCase().isPresent()) {
+            return TEST_CASE;
+        }
+        if (envelope.getStepDefinition().isPresent()) {
+            return STEP_DEFINITION;
+        }
+        if (envelope.getHook().isPresent()) {
+            return HOOK;
+        }
+        if (envelope.getSuggestion().isPresent()) {
+            return SUGGESTION;
+        }
+        if (envelope.getGherkinDocument().isPresent()) {
+            return GHERKIN_DOCUMENT;
+        }
+        if (envelope.getSource().isPresent()) {
+            return SOURCE;
+        }
+        if (envelope.getTestRunHookStarted().isPresent()) {
+            return TEST_RUN_HOOK_STARTED;
+        }
+        if (envelope.getTestRunHookFinished().isPresent()) {
+            return TEST_RUN_HOOK_FINISHED;
+        }
+        if (envelope.getUndefinedParameterType().isPresent()) {
+            return UNDEFINED_PARAMETER_TYPE;
+        }
+        if (envelope.getParameterType().isPresent()) {
+            return PARAMETER_TYPE;
+        }
+        if (envelope.getParseError().isPresent()) {
+            return PARSE_ERROR;
+        }
+        if (envelope.getMeta().isPresent()) {
+            return META;
+        }
+        if (envelope.getTestRunStarted().isPresent()) {
+            return TEST_RUN_STARTED;
+        }
+        if (envelope.getTestRunFinished().isPresent()) {
+            return TEST_RUN_FINISHED;
+        }
+        return UNKNOWN;
+    }
+
+    private static final Map<String, MessageType> byKey = stream(values())
+            .filter(messageType -> messageType != UNKNOWN)
+            .collect(toMap(MessageType::key, identity()));
+
+    static MessageType of(String key) {
+        return byKey.getOrDefault(key, UNKNOWN);
+    }
+}
@@ -0,0 +1,138 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.types.Envelope;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads NDJSON encoded messages into a {@link Repository}.
+ * <p>
+ * Lines with messages that the repository would not retain, because the
+ * corresponding {@link Repository.RepositoryFeature feature} is disabled, are
+ * skipped without being deserialized. This avoids parsing for example the
+ * bodies of attachments only to discard them.
+ * <p>
+ * The type of a message is determined from the top level key of the
+ * envelope. Lines with an unexpected format are deserialized as usual.
+ */
+public final class NdjsonToRepositoryReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Repository repository;
+    private final NdjsonToMessageReader.Deserializer deserializer;
+
+    public NdjsonToRepositoryReader(Repository repository, NdjsonToMessageReader.Deserializer deserializer) {
+        this.repository = requireNonNull(repository);
+        this.deserializer = requireNonNull(deserializer);
+    }
+
+    /**
+     * Reads all messages from the input stream and updates the repository.
+     * <p>
+     * The input stream is not closed.
+     *
+     * @param in a stream of UTF-8 encoded NDJSON
+     * @throws IOException when reading or deserializing a message failed
+     */
+    public void read(InputStream in) throws IOException {
+        Reader reader = new InputStreamReader(requireNonNull(in), UTF_8);
+        char[] buffer = new char[BUFFER_SIZE];
+        StringBuilder line = new StringBuilder();
+        boolean skipping = false;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                if (!skipping) {
+                    line.append(buffer, start, i - start);
+                    apply(line);
+                }
+                line.setLength(0);
+                skipping = false;
+                start = i + 1;
+            }
+            if (!skipping) {
+                line.append(buffer, start, read - start);
+                // Long lines are skipped before they are read completely
+                skipping = skip(line);
+                if (skipping) {
+                    line.setLength(0);
+                }
+            }
+        }
+        if (!skipping) {
+            apply(line);
+        }
+    }
+
+    private boolean skip(CharSequence line) {
+        String key = topLevelKey(line);
+        if (key == null) {
+            return false;
+        }
+        MessageType messageType = MessageType.of(key);
+        if (repository.retains(messageType)) {
+            return false;
+        }
+        repository.skip(messageType);
+        return true;
+    }
+
+    private void apply(CharSequence line) throws IOException {
+        if (isBlank(line) || skip(line)) {
+            return;
+        }
+        Envelope envelope = deserializer.readValue(line.toString());
+        repository.update(envelope);
+    }
+
+    /**
+     * Returns the first key of the json object on a line, or null when the
+     * key could not be found (yet).
+     */
+    private static @Nullable String topLevelKey(CharSequence line) {
+        int i = skipWhitespace(line, 0);
+        if (i >= line.length() || line.charAt(i) != '{') {
+            return null;
+        }
+        i = skipWhitespace(line, i + 1);
+        if (i >= line.length() || line.charAt(i) != '"') {
+            return null;
+        }
+        int start = i + 1;
+        for (int end = start; end < line.length(); end++) {
+            char c = line.charAt(end);
+            if (c == '\\') {
+                // Envelope keys are never escaped
+                return null;
+            }
+            if (c == '"') {
+                return line.subSequence(start, end).toString();
+            }
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(CharSequence line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        return skipWhitespace(line, 0) == line.length();
+    }
+}
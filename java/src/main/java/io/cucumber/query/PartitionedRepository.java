@@ -0,0 +1,128 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Envelope;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A repository of Cucumber Messages that is split into partitions.
+ * <p>
+ * Messages about the execution of test cases are stored in one of several
+ * partitions, selected by the id of the {@link io.cucumber.messages.types.TestCaseStarted}
+ * message they belong to. All other messages, such as pickles, test cases and
+ * Gherkin documents, are stored once in a global partition. Each partition
+ * is updated independently so test cases executed by different workers can
+ * be added concurrently, without contending for a single lock.
+ * <p>
+ * To query the repository, a {@link #snapshot()} of all partitions is merged
+ * into a single repository. The merged repository is reused until one of the
+ * partitions is updated.
+ *
+ * @see Repository.Builder#buildPartitioned(int)
+ */
+public final class PartitionedRepository {
+
+    private final Repository global;
+    private final Repository[] partitions;
+    // The last merged snapshot and the epochs of the partitions it contains
+    private @Nullable Repository merged;
+    private long[] mergedEpochs = new long[0];
+
+    PartitionedRepository(Repository global, Repository[] partitions) {
+        this.global = requireNonNull(global);
+        this.partitions = requireNonNull(partitions);
+    }
+
+    /**
+     * Updates the partition the message belongs to.
+     * <p>
+     * Can be called concurrently. For messages of the same test case the
+     * order in which they are applied is preserved.
+     */
+    public void update(Envelope envelope) {
+        partitionOf(envelope).update(envelope);
+    }
+
+    private Repository partitionOf(Envelope envelope) {
+        // Ordered by frequency in a typical test run
+        if (envelope.getTestStepStarted().isPresent()) {
+            return partition(envelope.getTestStepStarted().get().getTestCaseStartedId());
+        }
+        if (envelope.getTestStepFinished().isPresent()) {
+            return partition(envelope.getTestStepFinished().get().getTestCaseStartedId());
+        }
+        if (envelope.getTestCaseStarted().isPresent()) {
+            return partition(envelope.getTestCaseStarted().get().getId());
+        }
+        if (envelope.getTestCaseFinished().isPresent()) {
+            return partition(envelope.getTestCaseFinished().get().getTestCaseStartedId());
+        }
+        if (envelope.getAttachment().isPresent()) {
+            return envelope.getAttachment().get().getTestCaseStartedId()
+                    .map(this::partition)
+                    .orElse(global);
+        }
+        return global;
+    }
+
+    private Repository partition(String testCaseStartedId) {
+        return partitions[Math.floorMod(testCaseStartedId.hashCode(), partitions.length)];
+    }
+
+    /**
+     * The number of partitions for test case messages.
+     */
+    public int partitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Creates an immutable snapshot of all partitions, merged into a single
+     * repository.
+     * <p>
+     * The snapshot can be queried with {@link Query}. Each partition is
+     * snapshotted independently, a test case that is concurrently being
+     * updated may be partially included.
+     * <p>
+     * Test cases are ordered by the time they started, as if all messages
+     * had been added to a single repository. Merging takes time proportional
+     * to the number of messages. When no partition was updated since the
+     * previous snapshot, the previous snapshot is returned instead.
+     *
+     * @return a snapshot of all partitions
+     * @see Repository#merge(Repository...)
+     */
+    public synchronized Repository snapshot() {
+        Repository merged = this.merged;
+        if (merged != null && Arrays.equals(mergedEpochs, epochs())) {
+            return merged;
+        }
+        Repository[] snapshots = new Repository[partitions.length + 1];
+        long[] epochs = new long[snapshots.length];
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = (i == 0 ? global : partitions[i - 1]).snapshot();
+            epochs[i] = snapshots[i].envelopeCount();
+        }
+        merged = Repository.merge(snapshots).snapshot();
+        this.merged = merged;
+        this.mergedEpochs = epochs;
+        return merged;
+    }
+
+    /**
+     * The epochs of the global partition and the test case partitions. Read
+     * without taking a snapshot, so the partitions can continue to modify
+     * their indexes in place.
+     */
+    private long[] epochs() {
+        long[] epochs = new long[partitions.length + 1];
+        epochs[0] = global.envelopeCount();
+        for (int i = 0; i < partitions.length; i++) {
+            epochs[i + 1] = partitions[i].envelopeCount();
+        }
+        return epochs;
+    }
+}
@@ -0,0 +1,443 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map that shares its structure with the map it was derived
+ * from.
+ * <p>
+ * Mappings are held in a hash array mapped trie. Adding, replacing or
+ * removing a mapping copies at most the path from the root to the mapping.
+ * Mappings are iterated in insertion order, which is kept in a
+ * {@link PersistentVector}.
+ * <p>
+ * As with the vector, modifications are made on behalf of an owner and nodes
+ * created for an owner are modified in place by later modifications for the
+ * same owner. An owner must not modify a map after it was shared.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @see Repository#snapshot()
+ */
+final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, null, PersistentVector.empty(), 0);
+
+    private final @Nullable Object owner;
+    private @Nullable Node root;
+    // Removed mappings leave a null behind
+    private PersistentVector<@Nullable Mapping> order;
+    private int size;
+    private @Nullable Set<Entry<K, V>> entrySet;
+
+    private PersistentMap(@Nullable Object owner, @Nullable Node root, PersistentVector<@Nullable Mapping> order, int size) {
+        this.owner = owner;
+        this.root = root;
+        this.order = order;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(Object key) {
+        Mapping mapping = find(key);
+        return mapping == null ? null : (V) mapping.getValue();
+    }
+
+    private @Nullable Mapping find(Object key) {
+        if (root == null) {
+            return null;
+        }
+        return root.find(this, hash(key), 0, key);
+    }
+
+    private int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean same(Object a, Object b) {
+        return a == b || a.equals(b);
+    }
+
+    /**
+     * Adds or replaces a mapping. A replaced mapping keeps its position in
+     * the iteration order.
+     *
+     * @param owner on whose behalf the map is modified
+     * @return this map if it is owned by {@code owner}, otherwise a new map
+     */
+    PersistentMap<K, V> with(K key, V value, Object owner) {
+        PersistentMap<K, V> map = ownedBy(owner);
+        Change change = new Change(owner, map.order.size());
+        Mapping added = new Mapping(key, value, hash(key), change.position);
+        map.root = map.root == null
+                ? new BitmapNode(owner, 0, new Object[0]).put(map, change, 0, added)
+                : map.root.put(map, change, 0, added);
+        Mapping replaced = change.replaced;
+        if (replaced == null) {
+            map.order = map.order.append(change.mapping, owner);
+            map.size++;
+        } else {
+            map.order = map.order.set(replaced.position, change.mapping, owner);
+        }
+        return map;
+    }
+
+    /**
+     * Removes a mapping.
+     *
+     * @param owner on whose behalf the map is modified
+     * @return this map if it is owned by {@code owner} or does not contain
+     * {@code key}, otherwise a new map
+     */
+    PersistentMap<K, V> without(Object key, Object owner) {
+        Mapping existing = find(key);
+        if (existing == null) {
+            return this;
+        }
+        PersistentMap<K, V> map = ownedBy(owner);
+        map.root = requireRoot(map).remove(map, owner, existing.hash, 0, key);
+        map.order = map.order.set(existing.position, null, owner);
+        map.size--;
+        return map;
+    }
+
+    private static Node requireRoot(PersistentMap<?, ?> map) {
+        Node root = map.root;
+        if (root == null) {
+            throw new IllegalStateException("A map with mappings has a root");
+        }
+        return root;
+    }
+
+    private PersistentMap<K, V> ownedBy(Object owner) {
+        if (this.owner == owner) {
+            return this;
+        }
+        return new PersistentMap<>(owner, root, order, size);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> entries = entrySet;
+        if (entries == null) {
+            entries = new EntrySet();
+            entrySet = entries;
+        }
+        return entries;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        // Bound to the state of the map when iteration started
+        private final PersistentVector<@Nullable Mapping> mappings = order;
+        private int index;
+        private @Nullable Mapping next = advance();
+
+        private @Nullable Mapping advance() {
+            while (index < mappings.size()) {
+                Mapping mapping = mappings.get(index++);
+                if (mapping != null) {
+                    return mapping;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            Mapping current = next;
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+            next = advance();
+            return (Entry<K, V>) (Entry<?, ?>) current;
+        }
+    }
+
+    /**
+     * The result of adding a mapping to the trie.
+     */
+    private static final class Change {
+        private final Object owner;
+        private final int position;
+        private @Nullable Mapping replaced;
+        private @Nullable Mapping mapping;
+
+        Change(Object owner, int position) {
+            this.owner = owner;
+            this.position = position;
+        }
+
+        Mapping added(Mapping mapping) {
+            this.mapping = mapping;
+            return mapping;
+        }
+
+        Mapping replaced(Mapping existing, Mapping mapping) {
+            this.replaced = existing;
+            return added(new Mapping(mapping.getKey(), mapping.getValue(), mapping.hash, existing.position));
+        }
+    }
+
+    private static final class Mapping extends SimpleImmutableEntry<Object, Object> {
+        private final int hash;
+        private final int position;
+
+        Mapping(Object key, Object value, int hash, int position) {
+            super(key, value);
+            this.hash = hash;
+            this.position = position;
+        }
+    }
+
+    private abstract static class Node {
+        final @Nullable Object owner;
+
+        Node(@Nullable Object owner) {
+            this.owner = owner;
+        }
+
+        abstract @Nullable Mapping find(PersistentMap<?, ?> map, int hash, int shift, Object key);
+
+        abstract Node put(PersistentMap<?, ?> map, Change change, int shift, Mapping added);
+
+        abstract @Nullable Node remove(PersistentMap<?, ?> map, Object owner, int hash, int shift, Object key);
+    }
+
+    /**
+     * A node with up to 32 children, each a {@link Mapping} or a
+     * {@link Node}. Only the children that are present are stored.
+     */
+    private static final class BitmapNode extends Node {
+        private int bitmap;
+        private Object[] array;
+
+        BitmapNode(@Nullable Object owner, int bitmap, Object[] array) {
+            super(owner);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        @Nullable Mapping find(PersistentMap<?, ?> map, int hash, int shift, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = array[index(bit)];
+            if (child instanceof Node) {
+                return ((Node) child).find(map, hash, shift + BITS, key);
+            }
+            Mapping mapping = (Mapping) child;
+            return map.same(mapping.getKey(), key) ? mapping : null;
+        }
+
+        @Override
+        Node put(PersistentMap<?, ?> map, Change change, int shift, Mapping added) {
+            int bit = bit(added.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] array = new Object[this.array.length + 1];
+                System.arraycopy(this.array, 0, array, 0, index);
+                array[index] = change.added(added);
+                System.arraycopy(this.array, index, array, index + 1, this.array.length - index);
+                BitmapNode node = ownedBy(change.owner);
+                node.bitmap |= bit;
+                node.array = array;
+                return node;
+            }
+            Object child = array[index];
+            Object replacement;
+            if (child instanceof Node) {
+                Node node = (Node) child;
+                replacement = node.put(map, change, shift + BITS, added);
+                if (replacement == node) {
+                    return this;
+                }
+            } else {
+                Mapping existing = (Mapping) child;
+                if (map.same(existing.getKey(), added.getKey())) {
+                    replacement = change.replaced(existing, added);
+                } else {
+                    replacement = split(map, change, shift + BITS, existing, change.added(added));
+                }
+            }
+            BitmapNode node = ownedBy(change.owner);
+            node.array[index] = replacement;
+            return node;
+        }
+
+        private static Node split(PersistentMap<?, ?> map, Change change, int shift, Mapping existing, Mapping added) {
+            if (existing.hash == added.hash) {
+                return new CollisionNode(change.owner, existing.hash, new Mapping[]{existing, added});
+            }
+            Node node = new BitmapNode(change.owner, bit(existing.hash, shift), new Object[]{existing});
+            return node.put(map, change, shift, added);
+        }
+
+        @Override
+        @Nullable Node remove(PersistentMap<?, ?> map, Object owner, int hash, int shift, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object child = array[index];
+            if (child instanceof Node) {
+                Node node = (Node) child;
+                Node replacement = node.remove(map, owner, hash, shift + BITS, key);
+                if (replacement == node) {
+                    return this;
+                }
+                if (replacement != null) {
+                    BitmapNode copy = ownedBy(owner);
+                    copy.array[index] = replacement;
+                    return copy;
+                }
+            } else if (!map.same(((Mapping) child).getKey(), key)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] array = new Object[this.array.length - 1];
+            System.arraycopy(this.array, 0, array, 0, index);
+            System.arraycopy(this.array, index + 1, array, index, array.length - index);
+            BitmapNode node = ownedBy(owner);
+            node.bitmap &= ~bit;
+            node.array = array;
+            return node;
+        }
+
+        private BitmapNode ownedBy(Object owner) {
+            if (this.owner == owner) {
+                return this;
+            }
+            return new BitmapNode(owner, bitmap, array.clone());
+        }
+    }
+
+    /**
+     * A node with the mappings of keys that have the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private Mapping[] mappings;
+
+        CollisionNode(@Nullable Object owner, int hash, Mapping[] mappings) {
+            super(owner);
+            this.hash = hash;
+            this.mappings = mappings;
+        }
+
+        private int indexOf(PersistentMap<?, ?> map, Object key) {
+            for (int i = 0; i < mappings.length; i++) {
+                if (map.same(mappings[i].getKey(), key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        @Nullable Mapping find(PersistentMap<?, ?> map, int hash, int shift, Object key) {
+            int index = indexOf(map, key);
+            return index < 0 ? null : mappings[index];
+        }
+
+        @Override
+        Node put(PersistentMap<?, ?> map, Change change, int shift, Mapping added) {
+            if (added.hash != hash) {
+                // Not a collision at this level, nest it in a bitmap node
+                Node node = new BitmapNode(change.owner, BitmapNode.bit(hash, shift), new Object[]{this});
+                return node.put(map, change, shift, added);
+            }
+            int index = indexOf(map, added.getKey());
+            CollisionNode node = ownedBy(change.owner);
+            if (index < 0) {
+                Mapping[] mappings = Arrays.copyOf(node.mappings, node.mappings.length + 1);
+                mappings[mappings.length - 1] = change.added(added);
+                node.mappings = mappings;
+            } else {
+                node.mappings[index] = change.replaced(node.mappings[index], added);
+            }
+            return node;
+        }
+
+        @Override
+        @Nullable Node remove(PersistentMap<?, ?> map, Object owner, int hash, int shift, Object key) {
+            int index = indexOf(map, key);
+            if (index < 0) {
+                return this;
+            }
+            if (mappings.length == 1) {
+                return null;
+            }
+            Mapping[] mappings = new Mapping[this.mappings.length - 1];
+            System.arraycopy(this.mappings, 0, mappings, 0, index);
+            System.arraycopy(this.mappings, index + 1, mappings, index, mappings.length - index);
+            CollisionNode node = ownedBy(owner);
+            node.mappings = mappings;
+            return node;
+        }
+
+        private CollisionNode ownedBy(Object owner) {
+            if (this.owner == owner) {
+                return this;
+            }
+            return new CollisionNode(owner, hash, mappings.clone());
+        }
+    }
+}
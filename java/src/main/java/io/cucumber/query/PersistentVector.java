@@ -0,0 +1,213 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list that shares its structure with the list it was
+ * appended to.
+ * <p>
+ * Elements are held in a trie of 32 element nodes, the last node is kept
+ * separately as the tail. Appending to or replacing an element of a vector
+ * copies at most the path from the root to the element.
+ * <p>
+ * Modifications are made on behalf of an owner. Nodes created for an owner
+ * are modified in place by later modifications for the same owner, so a
+ * sequence of appends does not copy the vector for each element. An owner
+ * must not modify a vector after it was shared, it should continue with a
+ * new owner instead.
+ *
+ * @param <E> the type of the elements
+ * @see Repository#snapshot()
+ */
+final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] NO_ELEMENTS = new Object[0];
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(null, 0, BITS, EMPTY_NODE, new Node(null, NO_ELEMENTS));
+
+    private final @Nullable Object owner;
+    private int size;
+    private int shift;
+    private Node root;
+    private Node tail;
+
+    private PersistentVector(@Nullable Object owner, int size, int shift, Node root, Node tail) {
+        this.owner = owner;
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) nodeFor(index).array[index & MASK];
+    }
+
+    private Node nodeFor(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Appends an element.
+     *
+     * @param element to append
+     * @param owner   on whose behalf the vector is modified
+     * @return this vector if it is owned by {@code owner}, otherwise a new
+     * vector
+     */
+    PersistentVector<E> append(E element, Object owner) {
+        PersistentVector<E> vector = ownedBy(owner);
+        vector.appendInPlace(element, owner);
+        return vector;
+    }
+
+    private void appendInPlace(Object element, Object owner) {
+        int tailSize = size - tailOffset();
+        if (tailSize < WIDTH) {
+            Node node = tail.ownedBy(owner, tailSize + 1);
+            node.array[tailSize] = element;
+            tail = node;
+            size++;
+            return;
+        }
+        // The tail is full, move it into the trie
+        if ((size >>> BITS) > (1 << shift)) {
+            Node newRoot = new Node(owner, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(owner, shift, tail);
+            root = newRoot;
+            shift += BITS;
+        } else {
+            root = pushTail(owner, shift, root, tail);
+        }
+        Node node = new Node(owner, new Object[1]);
+        node.array[0] = element;
+        tail = node;
+        size++;
+    }
+
+    private Node pushTail(Object owner, int level, Node parent, Node tailNode) {
+        Node node = parent.ownedBy(owner, WIDTH);
+        int index = ((size - 1) >>> level) & MASK;
+        if (level == BITS) {
+            node.array[index] = tailNode;
+        } else {
+            Node child = (Node) node.array[index];
+            node.array[index] = child == null
+                    ? newPath(owner, level - BITS, tailNode)
+                    : pushTail(owner, level - BITS, child, tailNode);
+        }
+        return node;
+    }
+
+    private static Node newPath(Object owner, int level, Node node) {
+        if (level == 0) {
+            return node;
+        }
+        Node path = new Node(owner, new Object[WIDTH]);
+        path.array[0] = newPath(owner, level - BITS, node);
+        return path;
+    }
+
+    /**
+     * Replaces an element.
+     *
+     * @param index   of the element to replace
+     * @param element to replace it with
+     * @param owner   on whose behalf the vector is modified
+     * @return this vector if it is owned by {@code owner}, otherwise a new
+     * vector
+     */
+    PersistentVector<E> set(int index, E element, Object owner) {
+        nodeFor(index);
+        PersistentVector<E> vector = ownedBy(owner);
+        if (index >= tailOffset()) {
+            Node node = vector.tail.ownedBy(owner, vector.tail.array.length);
+            node.array[index & MASK] = element;
+            vector.tail = node;
+        } else {
+            vector.root = setInTrie(owner, shift, root, index, element);
+        }
+        return vector;
+    }
+
+    private static Node setInTrie(Object owner, int level, Node parent, int index, Object element) {
+        Node node = parent.ownedBy(owner, WIDTH);
+        if (level == 0) {
+            node.array[index & MASK] = element;
+        } else {
+            int child = (index >>> level) & MASK;
+            node.array[child] = setInTrie(owner, level - BITS, (Node) node.array[child], index, element);
+        }
+        return node;
+    }
+
+    private PersistentVector<E> ownedBy(Object owner) {
+        if (this.owner == owner) {
+            return this;
+        }
+        return new PersistentVector<>(owner, size, shift, root, tail);
+    }
+
+    private static final class Node {
+        private final @Nullable Object owner;
+        private Object[] array;
+
+        Node(@Nullable Object owner, Object[] array) {
+            this.owner = owner;
+            this.array = array;
+        }
+
+        /**
+         * A node owned by {@code owner} that can hold at least
+         * {@code capacity} elements. Tails grow as elements are appended,
+         * other nodes are always full width.
+         */
+        Node ownedBy(Object owner, int capacity) {
+            if (this.owner == owner) {
+                if (array.length < capacity) {
+                    array = Arrays.copyOf(array, grow(capacity));
+                }
+                return this;
+            }
+            return new Node(owner, Arrays.copyOf(array, Math.max(array.length, grow(capacity))));
+        }
+
+        private int grow(int capacity) {
+            return Math.min(WIDTH, Math.max(capacity, array.length * 2));
+        }
+    }
+}
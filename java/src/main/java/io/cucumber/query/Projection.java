@@ -0,0 +1,254 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Background;
+import io.cucumber.messages.types.Examples;
+import io.cucumber.messages.types.Exception;
+import io.cucumber.messages.types.Feature;
+import io.cucumber.messages.types.FeatureChild;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.Pickle;
+import io.cucumber.messages.types.PickleStep;
+import io.cucumber.messages.types.Rule;
+import io.cucumber.messages.types.RuleChild;
+import io.cucumber.messages.types.Scenario;
+import io.cucumber.messages.types.Step;
+import io.cucumber.messages.types.TestRunHookFinished;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepResult;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Removes the parts of messages that are not needed by the {@link Repository}.
+ * <p>
+ * Because messages are immutable, messages are recreated without these parts.
+ *
+ * @see Repository.RepositoryFeature#OMIT_STEP_ARGUMENTS
+ * @see Repository.RepositoryFeature#OMIT_DESCRIPTIONS_AND_COMMENTS
+ * @see Repository.Builder#testStepResultMessageLength(int)
+ */
+final class Projection {
+
+    private final boolean omitStepArguments;
+    private final boolean omitDescriptionsAndComments;
+    private final int testStepResultMessageLength;
+
+    Projection(boolean omitStepArguments, boolean omitDescriptionsAndComments, int testStepResultMessageLength) {
+        this.omitStepArguments = omitStepArguments;
+        this.omitDescriptionsAndComments = omitDescriptionsAndComments;
+        this.testStepResultMessageLength = testStepResultMessageLength;
+    }
+
+    boolean isIdentity() {
+        return !omitStepArguments && !omitDescriptionsAndComments && testStepResultMessageLength == Integer.MAX_VALUE;
+    }
+
+    Pickle pickle(Pickle pickle) {
+        if (!omitStepArguments) {
+            return pickle;
+        }
+        return new Pickle(
+                pickle.getId(),
+                pickle.getUri(),
+                pickle.getLocation().orElse(null),
+                pickle.getName(),
+                pickle.getLanguage(),
+                list(pickle.getSteps(), this::pickleStep),
+                pickle.getTags(),
+                pickle.getAstNodeIds()
+        );
+    }
+
+    private PickleStep pickleStep(PickleStep pickleStep) {
+        if (pickleStep.getArgument().isEmpty()) {
+            return pickleStep;
+        }
+        return new PickleStep(
+                null,
+                pickleStep.getAstNodeIds(),
+                pickleStep.getId(),
+                pickleStep.getType().orElse(null),
+                pickleStep.getText()
+        );
+    }
+
+    GherkinDocument gherkinDocument(GherkinDocument document) {
+        if (!omitStepArguments && !omitDescriptionsAndComments) {
+            return document;
+        }
+        return new GherkinDocument(
+                document.getUri().orElse(null),
+                document.getFeature().map(this::feature).orElse(null),
+                omitDescriptionsAndComments ? emptyList() : document.getComments()
+        );
+    }
+
+    private Feature feature(Feature feature) {
+        return new Feature(
+                feature.getLocation(),
+                feature.getTags(),
+                feature.getLanguage(),
+                feature.getKeyword(),
+                feature.getName(),
+                description(feature.getDescription()),
+                list(feature.getChildren(), this::featureChild)
+        );
+    }
+
+    private FeatureChild featureChild(FeatureChild child) {
+        return new FeatureChild(
+                child.getRule().map(this::rule).orElse(null),
+                child.getBackground().map(this::background).orElse(null),
+                child.getScenario().map(this::scenario).orElse(null)
+        );
+    }
+
+    private Rule rule(Rule rule) {
+        return new Rule(
+                rule.getLocation(),
+                rule.getTags(),
+                rule.getKeyword(),
+                rule.getName(),
+                description(rule.getDescription()),
+                list(rule.getChildren(), this::ruleChild),
+                rule.getId()
+        );
+    }
+
+    private RuleChild ruleChild(RuleChild child) {
+        return new RuleChild(
+                child.getBackground().map(this::background).orElse(null),
+                child.getScenario().map(this::scenario).orElse(null)
+        );
+    }
+
+    private Background background(Background background) {
+        return new Background(
+                background.getLocation(),
+                background.getKeyword(),
+                background.getName(),
+                description(background.getDescription()),
+                list(background.getSteps(), this::step),
+                background.getId()
+        );
+    }
+
+    private Scenario scenario(Scenario scenario) {
+        return new Scenario(
+                scenario.getLocation(),
+                scenario.getTags(),
+                scenario.getKeyword(),
+                scenario.getName(),
+                description(scenario.getDescription()),
+                list(scenario.getSteps(), this::step),
+                list(scenario.getExamples(), this::examples),
+                scenario.getId()
+        );
+    }
+
+    private Examples examples(Examples examples) {
+        // The table is needed to name pickles by their example
+        return new Examples(
+                examples.getLocation(),
+                examples.getTags(),
+                examples.getKeyword(),
+                examples.getName(),
+                description(examples.getDescription()),
+                examples.getTableHeader().orElse(null),
+                examples.getTableBody(),
+                examples.getId()
+        );
+    }
+
+    private Step step(Step step) {
+        if (!omitStepArguments) {
+            return step;
+        }
+        return new Step(
+                step.getLocation(),
+                step.getKeyword(),
+                step.getKeywordType().orElse(null),
+                step.getText(),
+                null,
+                null,
+                step.getId()
+        );
+    }
+
+    private String description(String description) {
+        return omitDescriptionsAndComments ? "" : description;
+    }
+
+    TestStepFinished testStepFinished(TestStepFinished event) {
+        TestStepResult result = event.getTestStepResult();
+        TestStepResult truncated = testStepResult(result);
+        if (truncated == result) {
+            return event;
+        }
+        return new TestStepFinished(
+                event.getTestCaseStartedId(),
+                event.getTestStepId(),
+                truncated,
+                event.getTimestamp()
+        );
+    }
+
+    TestRunHookFinished testRunHookFinished(TestRunHookFinished event) {
+        TestStepResult result = event.getResult();
+        TestStepResult truncated = testStepResult(result);
+        if (truncated == result) {
+            return event;
+        }
+        return new TestRunHookFinished(
+                event.getTestRunHookStartedId(),
+                truncated,
+                event.getTimestamp()
+        );
+    }
+
+    private TestStepResult testStepResult(TestStepResult result) {
+        if (!exceeds(result.getMessage()) && result.getException().filter(this::exceeds).isEmpty()) {
+            return result;
+        }
+        return new TestStepResult(
+                result.getDuration(),
+                result.getMessage().map(this::truncate).orElse(null),
+                result.getStatus(),
+                result.getException().map(this::exception).orElse(null)
+        );
+    }
+
+    private boolean exceeds(Exception exception) {
+        return exceeds(exception.getMessage()) || exceeds(exception.getStackTrace());
+    }
+
+    private boolean exceeds(Optional<String> value) {
+        return value.filter(v -> v.length() > testStepResultMessageLength).isPresent();
+    }
+
+    private Exception exception(Exception exception) {
+        return new Exception(
+                exception.getType(),
+                exception.getMessage().map(this::truncate).orElse(null),
+                exception.getStackTrace().map(this::truncate).orElse(null)
+        );
+    }
+
+    private String truncate(String value) {
+        return value.length() > testStepResultMessageLength
+                ? value.substring(0, testStepResultMessageLength)
+                : value;
+    }
+
+    private static <T> List<T> list(List<T> values, Function<T, T> project) {
+        if (values.isEmpty()) {
+            return values;
+        }
+        return values.stream().map(project).collect(toList());
+    }
+}
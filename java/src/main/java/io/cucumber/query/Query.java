@@ -29,10 +29,11 @@ import io.cucumber.messages.types.TestStepFinished;
 import io.cucumber.messages.types.TestStepResult;
 import io.cucumber.messages.types.TestStepResultStatus;
 import io.cucumber.messages.types.TestStepStarted;
-import io.cucumber.messages.types.Timestamp;
 import io.cucumber.messages.types.UndefinedParameterType;
+import org.jspecify.annotations.Nullable;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,10 +45,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
 import java.util.Objects;
 import java.util.function.BiFunction;
 
-import static java.util.Collections.emptyList;
+import static java.util.Collections.synchronizedMap;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
@@ -65,28 +68,72 @@ import static java.util.stream.Collectors.toList;
  * @see <a href="https://github.com/cucumber/messages?tab=readme-ov-file#message-overview">Cucumber Messages - Message Overview</a>
  */
 public final class Query {
+    private static final int MAX_CACHED_TEST_CASE_VIEWS = 1024;
     private final Repository repository;
+    private final Map<String, TestCaseView> testCaseViewByTestCaseStartedId = synchronizedMap(new LruMap<>(MAX_CACHED_TEST_CASE_VIEWS));
+    private final Memoized<List<TestCaseStarted>> allTestCaseStarted = new Memoized<>();
+    private final Memoized<List<TestCaseFinished>> allTestCaseFinished = new Memoized<>();
+    private final Memoized<List<TestStepStarted>> allTestStepStarted = new Memoized<>();
+    private final Memoized<List<TestStepFinished>> allTestStepFinished = new Memoized<>();
+    private final Memoized<Map<TestStepResultStatus, Long>> mostSevereTestStepResultStatusCount = new Memoized<>();
+    private volatile @Nullable QueryTimings timings;
 
     public Query(Repository repository) {
         this.repository = repository;
     }
 
+    /**
+     * Starts recording the cumulative time spent in queries that scan the
+     * repository.
+     */
+    QueryTimings recordTimings() {
+        QueryTimings current = timings;
+        if (current == null) {
+            current = new QueryTimings();
+            timings = current;
+        }
+        return current;
+    }
+
+    private QueryEvent beginQuery() {
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        if (timings != null) {
+            event.startNanos = System.nanoTime();
+        }
+        return event;
+    }
+
+    private void completeQuery(QueryEvent event, String method, int resultSize) {
+        event.complete(method, resultSize, repository.epoch);
+        QueryTimings current = timings;
+        if (current != null && event.startNanos != 0) {
+            current.add(method, System.nanoTime() - event.startNanos);
+        }
+    }
+
     public Map<TestStepResultStatus, Long> countMostSevereTestStepResultStatus() {
+        return new EnumMap<>(mostSevereTestStepResultStatusCount.get(repository.epoch, this::computeMostSevereTestStepResultStatusCount));
+    }
+
+    private Map<TestStepResultStatus, Long> computeMostSevereTestStepResultStatusCount() {
+        QueryEvent event = beginQuery();
         EnumMap<TestStepResultStatus, Long> results = new EnumMap<>(TestStepResultStatus.class);
         for (TestStepResultStatus value : TestStepResultStatus.values()) {
             results.put(value, 0L);
         }
-        results.putAll(findAllTestCaseStarted().stream()
+        results.putAll(memoizedAllTestCaseStarted().stream()
                 .map(this::findMostSevereTestStepResultBy)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .map(TestStepResult::getStatus)
                 .collect(groupingBy(identity(), LinkedHashMap::new, counting())));
+        completeQuery(event, "countMostSevereTestStepResultStatus", results.size());
         return results;
     }
 
     public int countTestCasesStarted() {
-        return findAllTestCaseStarted().size();
+        return memoizedAllTestCaseStarted().size();
     }
 
     public List<Pickle> findAllPickles() {
@@ -98,11 +145,26 @@ public final class Query {
     }
 
     public List<TestCaseStarted> findAllTestCaseStarted() {
-        return repository.testCaseStartedById.values().stream()
-                .filter(element -> !findTestCaseFinishedBy(element)
-                        .filter(TestCaseFinished::getWillBeRetried)
-                        .isPresent())
-                .collect(toList());
+        return new ArrayList<>(memoizedAllTestCaseStarted());
+    }
+
+    private List<TestCaseStarted> memoizedAllTestCaseStarted() {
+        return allTestCaseStarted.get(repository.epoch, () -> {
+            QueryEvent event = beginQuery();
+            List<TestCaseStarted> result = repository.testCaseStartedById.values().stream()
+                    .filter(element -> !isRetried(element))
+                    .collect(toList());
+            completeQuery(event, "findAllTestCaseStarted", result.size());
+            return result;
+        });
+    }
+
+    private boolean isRetried(TestCaseStarted testCaseStarted) {
+        // Final attempts are the most common, attempts that did not finish
+        // yet are not retried either
+        String id = testCaseStarted.getId();
+        return !repository.finalTestCaseFinishedByTestCaseStartedId.containsKey(id)
+                && repository.testCaseFinishedByTestCaseStartedId.containsKey(id);
     }
 
     public List<StepDefinition> findAllStepDefinitions() {
@@ -110,29 +172,42 @@ public final class Query {
     }
 
     public <T> List<TestCaseStarted> findAllTestCaseStartedOrderBy(BiFunction<Query, TestCaseStarted, Optional<T>> findOrderBy, Comparator<T> order) {
-        return findAllTestCaseStarted().stream()
+        QueryEvent event = beginQuery();
+        List<TestCaseStarted> result = memoizedAllTestCaseStarted().stream()
                 .map(testCaseStarted -> findOrderBy.apply(this, testCaseStarted)
                         .map(orderBy -> new OrderableMessage<>(testCaseStarted, orderBy))
                         .orElseGet(() -> new OrderableMessage<>(testCaseStarted)))
                 .sorted(Comparator.comparing(OrderableMessage::orderBy, order))
                 .map(OrderableMessage::message)
                 .collect(toList());
+        completeQuery(event, "findAllTestCaseStartedOrderBy", result.size());
+        return result;
     }
 
     public List<TestCaseFinished> findAllTestCaseFinished() {
-        return repository.testCaseFinishedByTestCaseStartedId.values().stream()
-                .filter(testCaseFinished -> !testCaseFinished.getWillBeRetried())
-                .collect(toList());
+        return new ArrayList<>(memoizedAllTestCaseFinished());
+    }
+
+    private List<TestCaseFinished> memoizedAllTestCaseFinished() {
+        return allTestCaseFinished.get(repository.epoch, () -> {
+            QueryEvent event = beginQuery();
+            List<TestCaseFinished> result = new ArrayList<>(repository.finalTestCaseFinishedByTestCaseStartedId.values());
+            completeQuery(event, "findAllTestCaseFinished", result.size());
+            return result;
+        });
     }
 
     public <T> List<TestCaseFinished> findAllTestCaseFinishedOrderBy(BiFunction<Query, TestCaseFinished, Optional<T>> findOrderBy, Comparator<T> order) {
-        return findAllTestCaseFinished().stream()
+        QueryEvent event = beginQuery();
+        List<TestCaseFinished> result = memoizedAllTestCaseFinished().stream()
                 .map(testCaseStarted -> findOrderBy.apply(this, testCaseStarted)
                         .map(orderBy -> new OrderableMessage<>(testCaseStarted, orderBy))
                         .orElseGet(() -> new OrderableMessage<>(testCaseStarted)))
                 .sorted(Comparator.comparing(OrderableMessage::orderBy, order))
                 .map(OrderableMessage::message)
                 .collect(toList());
+        completeQuery(event, "findAllTestCaseFinishedOrderBy", result.size());
+        return result;
     }
 
     public List<TestStep> findAllTestSteps() {
@@ -144,15 +219,25 @@ public final class Query {
     }
 
     public List<TestStepStarted> findAllTestStepStarted() {
-        return repository.testStepsStartedByTestCaseStartedId.values().stream()
-                .flatMap(Collection::stream)
-                .collect(toList());
+        return new ArrayList<>(allTestStepStarted.get(repository.epoch, () -> {
+            QueryEvent event = beginQuery();
+            List<TestStepStarted> result = repository.testStepsStartedByTestCaseStartedId.values().stream()
+                    .flatMap(Collection::stream)
+                    .collect(toList());
+            completeQuery(event, "findAllTestStepStarted", result.size());
+            return result;
+        }));
     }
 
     public List<TestStepFinished> findAllTestStepFinished() {
-        return repository.testStepsFinishedByTestCaseStartedId.values().stream()
-                .flatMap(Collection::stream)
-                .collect(toList());
+        return new ArrayList<>(allTestStepFinished.get(repository.epoch, () -> {
+            QueryEvent event = beginQuery();
+            List<TestStepFinished> result = repository.testStepsFinishedByTestCaseStartedId.values().stream()
+                    .flatMap(Collection::stream)
+                    .collect(toList());
+            completeQuery(event, "findAllTestStepFinished", result.size());
+            return result;
+        }));
     }
 
     public List<TestRunHookStarted> findAllTestRunHookStarted() {
@@ -163,23 +248,97 @@ public final class Query {
         return new ArrayList<>(repository.testRunHookFinishedByTestRunHookStartedId.values());
     }
 
+    /**
+     * Finds the ids of all workers that started a test case, in the order
+     * they started their first test case.
+     */
+    public List<String> findAllWorkerIds() {
+        return new ArrayList<>(repository.testCaseStartedByWorkerId.keySet());
+    }
+
     public List<UndefinedParameterType> findAllUndefinedParameterTypes() {
         return new ArrayList<>(repository.undefinedParameterTypes);
     }
 
     public List<Attachment> findAttachmentsBy(TestStepFinished testStepFinished) {
         requireNonNull(testStepFinished);
-        return repository.attachmentsByTestCaseStartedId.getOrDefault(testStepFinished.getTestCaseStartedId(), emptyList()).stream()
-                .filter(attachment -> attachment.getTestStepId()
+        return repository.attachmentsByTestCaseStartedId.getOrDefault(testStepFinished.getTestCaseStartedId(), PersistentVector.empty()).stream()
+                .filter(attachment -> attachment.testStepId()
                         .map(testStepId -> testStepFinished.getTestStepId().equals(testStepId))
                         .orElse(false))
+                .map(StoredAttachment::attachment)
                 .collect(toList());
     }
 
     public List<Attachment> findAttachmentsBy(TestRunHookFinished testRunHookFinished) {
         requireNonNull(testRunHookFinished);
-        List<Attachment> attachments = repository.attachmentsByTestRunHookStartedId.getOrDefault(testRunHookFinished.getTestRunHookStartedId(), emptyList());
-        return new ArrayList<>(attachments);
+        return repository.attachmentsByTestRunHookStartedId.getOrDefault(testRunHookFinished.getTestRunHookStartedId(), PersistentVector.empty()).stream()
+                .map(StoredAttachment::attachment)
+                .collect(toList());
+    }
+
+    /**
+     * Finds all attempts to execute a test case, in the order they were
+     * started.
+     */
+    public List<TestCaseStarted> findAttemptsBy(TestCase testCase) {
+        requireNonNull(testCase);
+        List<TestCaseStarted> attempts = repository.testCaseStartedByTestCaseId.get(testCase.getId());
+        return attempts == null ? new ArrayList<>() : new ArrayList<>(attempts);
+    }
+
+    /**
+     * Computes how test cases were executed concurrently.
+     * <p>
+     * Test cases that did not finish are not included.
+     *
+     * @return the concurrency profile, or empty when no test case finished
+     */
+    public Optional<ConcurrencyProfile> findConcurrencyProfile() {
+        QueryEvent event = beginQuery();
+        // Sweep line over the start (+1) and end (-1) of each test case
+        List<Entry<Instant, Integer>> events = new ArrayList<>();
+        Map<String, Duration> busyTimeByWorker = new LinkedHashMap<>();
+        repository.testCaseStartedById.values().forEach(testCaseStarted -> {
+            TestCaseFinished testCaseFinished = repository.testCaseFinishedByTestCaseStartedId.get(testCaseStarted.getId());
+            if (testCaseFinished == null) {
+                return;
+            }
+            Instant started = Convertor.toInstant(testCaseStarted.getTimestamp());
+            Instant finished = Convertor.toInstant(testCaseFinished.getTimestamp());
+            events.add(new SimpleEntry<>(started, 1));
+            events.add(new SimpleEntry<>(finished, -1));
+            testCaseStarted.getWorkerId().ifPresent(workerId ->
+                    busyTimeByWorker.merge(workerId, Duration.between(started, finished), Duration::plus));
+        });
+        if (events.isEmpty()) {
+            completeQuery(event, "findConcurrencyProfile", 0);
+            return Optional.empty();
+        }
+        // At the same instant, test cases end before others start
+        events.sort(Entry.<Instant, Integer>comparingByKey().thenComparing(Entry.comparingByValue()));
+        TreeMap<Instant, Integer> runningTestCases = new TreeMap<>();
+        int running = 0;
+        int maxRunning = 0;
+        for (Entry<Instant, Integer> entry : events) {
+            running += entry.getValue();
+            maxRunning = Math.max(maxRunning, running);
+            runningTestCases.put(entry.getKey(), running);
+        }
+        Duration duration = Duration.between(runningTestCases.firstKey(), runningTestCases.lastKey());
+        completeQuery(event, "findConcurrencyProfile", events.size());
+        return Optional.of(new ConcurrencyProfile(runningTestCases, busyTimeByWorker, duration, maxRunning));
+    }
+
+    /**
+     * Finds the final attempt to execute a test case.
+     * <p>
+     * The final attempt is the attempt that finished and will not be
+     * retried. Is empty while the test case is being executed.
+     */
+    public Optional<TestCaseStarted> findFinalAttemptBy(TestCase testCase) {
+        requireNonNull(testCase);
+        return ofNullable(repository.finalTestCaseStartedByTestCaseId.get(testCase.getId()));
     }
 
     public Optional<Hook> findHookBy(TestStep testStep) {
@@ -269,7 +428,7 @@ public final class Query {
 
     public List<Suggestion> findSuggestionsBy(PickleStep pickleStep) {
         requireNonNull(pickleStep);
-        List<Suggestion> suggestions = repository.suggestionsByPickleStepId.getOrDefault(pickleStep.getId(), emptyList());
+        List<Suggestion> suggestions = repository.suggestionsByPickleStepId.getOrDefault(pickleStep.getId(), PersistentVector.empty());
         return new ArrayList<>(suggestions);
     }
 
@@ -328,19 +487,116 @@ public final class Query {
 
     public Optional<Duration> findTestCaseDurationBy(TestCaseStarted testCaseStarted) {
         requireNonNull(testCaseStarted);
-        Timestamp started = testCaseStarted.getTimestamp();
-        return findTestCaseFinishedBy(testCaseStarted)
-                .map(TestCaseFinished::getTimestamp)
-                .map(finished -> Duration.between(
-                        Convertor.toInstant(started),
-                        Convertor.toInstant(finished)
-                ));
+        OptionalLong nanos = findTestCaseDurationNanosBy(testCaseStarted);
+        return nanos.isPresent() ? Optional.of(Duration.ofNanos(nanos.getAsLong())) : Optional.empty();
+    }
+
+    public OptionalLong findTestCaseDurationNanosBy(TestCaseStarted testCaseStarted) {
+        requireNonNull(testCaseStarted);
+        return findTestCaseDurationNanosBy(testCaseStarted.getId());
+    }
+
+    public OptionalLong findTestCaseDurationNanosBy(TestCaseFinished testCaseFinished) {
+        requireNonNull(testCaseFinished);
+        return findTestCaseDurationNanosBy(testCaseFinished.getTestCaseStartedId());
+    }
+
+    private OptionalLong findTestCaseDurationNanosBy(String testCaseStartedId) {
+        TestCaseTiming timing = repository.testCaseTimingByTestCaseStartedId.get(testCaseStartedId);
+        if (timing == null || !timing.isFinished()) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(timing.durationNanos());
+    }
+
+    /**
+     * Finds the total duration of all finished test cases that will not be
+     * retried.
+     */
+    public long findTotalTestCaseDurationNanos() {
+        return repository.finalTestCaseDurationNanos;
+    }
+
+    /**
+     * Finds the total duration of all finished test cases started by a
+     * worker, including retried attempts.
+     */
+    public Duration findTotalTestCaseDurationBy(String workerId) {
+        requireNonNull(workerId);
+        List<TestCaseStarted> testCasesStarted = repository.testCaseStartedByWorkerId.get(workerId);
+        if (testCasesStarted == null) {
+            return Duration.ZERO;
+        }
+        long total = 0;
+        for (TestCaseStarted testCaseStarted : testCasesStarted) {
+            TestCaseTiming timing = repository.testCaseTimingByTestCaseStartedId.get(testCaseStarted.getId());
+            if (timing != null && timing.isFinished()) {
+                total += timing.durationNanos();
+            }
+        }
+        return Duration.ofNanos(total);
     }
 
     public Optional<Duration> findTestCaseDurationBy(TestCaseFinished testCaseFinished) {
         requireNonNull(testCaseFinished);
-        return findTestCaseStartedBy(testCaseFinished)
-                .flatMap(this::findTestCaseDurationBy);
+        OptionalLong nanos = findTestCaseDurationNanosBy(testCaseFinished);
+        return nanos.isPresent() ? Optional.of(Duration.ofNanos(nanos.getAsLong())) : Optional.empty();
+    }
+
+    /**
+     * Finds the summary of the final attempts of the test cases in a
+     * document.
+     *
+     * @see Repository.RepositoryFeature#INCLUDE_SUMMARIES
+     */
+    public Optional<Summary> findSummaryBy(GherkinDocument element) {
+        requireNonNull(element);
+        return element.getUri().map(repository.summaryByElement::get);
+    }
+
+    /**
+     * Finds the summary of the final attempts of the test cases in a feature.
+     * <p>
+     * A feature has no id, it is found by the id of its first scenario or
+     * rule. A feature without scenarios and rules has no summary.
+     *
+     * @see Repository.RepositoryFeature#INCLUDE_SUMMARIES
+     */
+    public Optional<Summary> findSummaryBy(Feature element) {
+        requireNonNull(element);
+        return element.getChildren().stream()
+                .map(featureChild -> featureChild.getScenario().map(Scenario::getId)
+                        .or(() -> featureChild.getRule().map(Rule::getId)))
+                .flatMap(Optional::stream)
+                .findFirst()
+                .map(id -> repository.findLineage(id, null))
+                .flatMap(lineage -> lineage.document().getUri())
+                .map(repository.summaryByElement::get);
+    }
+
+    public Optional<Summary> findSummaryBy(Rule element) {
+        requireNonNull(element);
+        return ofNullable(repository.summaryByElement.get(element.getId()));
+    }
+
+    public Optional<Summary> findSummaryBy(Scenario element) {
+        requireNonNull(element);
+        return ofNullable(repository.summaryByElement.get(element.getId()));
+    }
+
+    public Optional<Summary> findSummaryBy(Examples element) {
+        requireNonNull(element);
+        return ofNullable(repository.summaryByElement.get(element.getId()));
+    }
+
+    /**
+     * Finds all test cases started by a worker, including retried attempts,
+     * in the order they were started.
+     */
+    public List<TestCaseStarted> findTestCaseStartedBy(String workerId) {
+        requireNonNull(workerId);
+        List<TestCaseStarted> testCasesStarted = repository.testCaseStartedByWorkerId.get(workerId);
+        return testCasesStarted == null ? new ArrayList<>() : new ArrayList<>(testCasesStarted);
     }
 
     public Optional<TestCaseStarted> findTestCaseStartedBy(TestStepStarted testStepStarted) {
@@ -361,6 +617,33 @@ public final class Query {
         return ofNullable(repository.testCaseStartedById.get(testCaseStartedId));
     }
 
+    /**
+     * Finds the test case, pickle, lineage, steps and results of a test case
+     * in a single lookup.
+     * <p>
+     * Once a test case has finished its view is cached. Only the views of
+     * the most recently used test cases are retained.
+     */
+    public Optional<TestCaseView> findTestCaseViewBy(TestCaseStarted testCaseStarted) {
+        requireNonNull(testCaseStarted);
+        TestCaseView cached = testCaseViewByTestCaseStartedId.get(testCaseStarted.getId());
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        QueryEvent event = beginQuery();
+        Optional<TestCaseView> view = TestCaseView.of(this, testCaseStarted);
+        completeQuery(event, "findTestCaseViewBy", view.isPresent() ? 1 : 0);
+        view.filter(testCaseView -> testCaseView.testCaseFinished().isPresent())
+                .ifPresent(testCaseView -> testCaseViewByTestCaseStartedId.put(testCaseStarted.getId(), testCaseView));
+        return view;
+    }
+
+    public Optional<TestCaseView> findTestCaseViewBy(TestCaseFinished testCaseFinished) {
+        requireNonNull(testCaseFinished);
+        return findTestCaseStartedBy(testCaseFinished)
+                .flatMap(this::findTestCaseViewBy);
+    }
+
     public Optional<TestCaseFinished> findTestCaseFinishedBy(TestCaseStarted testCaseStarted) {
         requireNonNull(testCaseStarted);
         return ofNullable(repository.testCaseFinishedByTestCaseStartedId.get(testCaseStarted.getId()));
@@ -376,6 +659,14 @@ public final class Query {
         return ofNullable(repository.testRunHookStartedById.get(testRunHookFinished.getTestRunHookStartedId()));
     }
 
+    public OptionalLong findTestRunDurationNanos() {
+        if (repository.testRunStarted == null || repository.testRunFinished == null) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(TestCaseTiming.toEpochNanos(repository.testRunFinished.getTimestamp())
+                - TestCaseTiming.toEpochNanos(repository.testRunStarted.getTimestamp()));
+    }
+
     public Optional<Duration> findTestRunDuration() {
         if (repository.testRunStarted == null || repository.testRunFinished == null) {
             return Optional.empty();
@@ -408,7 +699,7 @@ public final class Query {
     public List<TestStepStarted> findTestStepsStartedBy(TestCaseStarted testCaseStarted) {
         requireNonNull(testCaseStarted);
         List<TestStepStarted> testStepsStarted = repository.testStepsStartedByTestCaseStartedId.
-                getOrDefault(testCaseStarted.getId(), emptyList());
+                getOrDefault(testCaseStarted.getId(), PersistentVector.empty());
         // Concurrency
         return new ArrayList<>(testStepsStarted);
     }
@@ -416,7 +707,7 @@ public final class Query {
     public List<TestStepStarted> findTestStepsStartedBy(TestCaseFinished testCaseFinished) {
         requireNonNull(testCaseFinished);
         List<TestStepStarted> testStepsStarted = repository.testStepsStartedByTestCaseStartedId.
-                getOrDefault(testCaseFinished.getTestCaseStartedId(), emptyList());
+                getOrDefault(testCaseFinished.getTestCaseStartedId(), PersistentVector.empty());
         // Concurrency
         return new ArrayList<>(testStepsStarted);
     }
@@ -424,7 +715,7 @@ public final class Query {
     public List<TestStepFinished> findTestStepsFinishedBy(TestCaseStarted testCaseStarted) {
         requireNonNull(testCaseStarted);
         List<TestStepFinished> testStepsFinished = repository.testStepsFinishedByTestCaseStartedId.
-                getOrDefault(testCaseStarted.getId(), emptyList());
+                getOrDefault(testCaseStarted.getId(), PersistentVector.empty());
         // Concurrency
         return new ArrayList<>(testStepsFinished);
     }
@@ -446,39 +737,39 @@ public final class Query {
 
     public Optional<Lineage> findLineageBy(GherkinDocument element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element.getUri()));
+        return Optional.ofNullable(repository.findLineage(element.getUri(), element.getUri().orElse(null)));
     }
 
     public Optional<Lineage> findLineageBy(Feature element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element));
+        return Optional.ofNullable(repository.findLineage(element, null));
     }
 
     public Optional<Lineage> findLineageBy(Rule element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element.getId()));
+        return Optional.ofNullable(repository.findLineage(element.getId(), null));
     }
 
     public Optional<Lineage> findLineageBy(Scenario element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element.getId()));
+        return Optional.ofNullable(repository.findLineage(element.getId(), null));
     }
 
     public Optional<Lineage> findLineageBy(Examples element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element.getId()));
+        return Optional.ofNullable(repository.findLineage(element.getId(), null));
     }
 
     public Optional<Lineage> findLineageBy(TableRow element) {
         requireNonNull(element);
-        return Optional.ofNullable(repository.lineageById.get(element.getId()));
+        return Optional.ofNullable(repository.findLineage(element.getId(), null));
     }
 
     public Optional<Lineage> findLineageBy(Pickle pickle) {
         requireNonNull(pickle);
         List<String> astNodeIds = pickle.getAstNodeIds();
         String pickleAstNodeId = astNodeIds.get(astNodeIds.size() - 1);
-        return Optional.ofNullable(repository.lineageById.get(pickleAstNodeId));
+        return Optional.ofNullable(repository.findLineage(pickleAstNodeId, pickle.getUri()));
     }
 
     public Optional<Lineage> findLineageBy(TestCaseStarted testCaseStarted) {
@@ -490,4 +781,22 @@ public final class Query {
         return findPickleBy(testCaseFinished)
                 .flatMap(this::findLineageBy);
     }
+
+    /**
+     * A map that evicts the least recently used entry when it exceeds its
+     * capacity.
+     */
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private final int capacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
 }
@@ -0,0 +1,42 @@
+package io.cucumber.query;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by JDK Flight Recorder for queries that scan the
+ * {@link Repository}.
+ */
+@Name("io.cucumber.query.Query")
+@Label("Query")
+@Category({"Cucumber", "Query"})
+@Description("A query that scans the repository")
+@StackTrace(false)
+final class QueryEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Result Size")
+    int resultSize;
+
+    @Label("Repository Size")
+    @Description("Number of messages applied to the repository")
+    long repositorySize;
+
+    // Not recorded, used to record query timings when enabled
+    transient long startNanos;
+
+    void complete(String method, int resultSize, long repositorySize) {
+        end();
+        if (shouldCommit()) {
+            this.method = method;
+            this.resultSize = resultSize;
+            this.repositorySize = repositorySize;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.cucumber.query;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cumulative time spent in queries, by query method.
+ */
+final class QueryTimings {
+
+    private final Map<String, LongAdder> nanosByMethod = new ConcurrentHashMap<>();
+
+    void add(String method, long nanos) {
+        nanosByMethod.computeIfAbsent(method, key -> new LongAdder()).add(nanos);
+    }
+
+    Map<String, Long> cumulativeNanos() {
+        Map<String, Long> result = new TreeMap<>();
+        nanosByMethod.forEach((method, nanos) -> result.put(method, nanos.sum()));
+        return result;
+    }
+}
@@ -20,25 +20,43 @@ import io.cucumber.messages.types.TestRunHookStarted;
 import io.cucumber.messages.types.TestRunStarted;
 import io.cucumber.messages.types.TestStep;
 import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepResult;
+import io.cucumber.messages.types.TestStepResultStatus;
 import io.cucumber.messages.types.TestStepStarted;
+import io.cucumber.messages.types.Timestamp;
 import io.cucumber.messages.types.UndefinedParameterType;
 import org.jspecify.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.function.BiFunction;
+import java.util.TreeMap;
+import java.util.function.Function;
 
+import static io.cucumber.query.Repository.RepositoryFeature.CANONICALIZE_VALUES;
+import static io.cucumber.query.Repository.RepositoryFeature.COMPRESS_ATTACHMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.DEDUPLICATE_ATTACHMENTS;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_ATTACHMENTS;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_HOOKS;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_STEP_DEFINITIONS;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_SUMMARIES;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_SUGGESTIONS;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_UNDEFINED_PARAMETER_TYPES;
+import static io.cucumber.query.Repository.RepositoryFeature.LAZY_LINEAGE;
+import static io.cucumber.query.Repository.RepositoryFeature.OMIT_DESCRIPTIONS_AND_COMMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.OMIT_STEP_ARGUMENTS;
+import static io.cucumber.messages.Convertor.toInstant;
+import static java.util.Comparator.comparing;
+import static java.util.Objects.requireNonNull;
 
 /**
  * A write only repository of Cucumber Messages.
@@ -47,40 +65,622 @@ import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_UNDEFINED_P
  * through the {@link #update(Envelope)} method, and be queried by {@link Query}.
  */
 public final class Repository {
+    private static final int DEFAULT_ATTACHMENT_COMPRESSION_THRESHOLD = 1024;
+
     private final Set<RepositoryFeature> features;
+    private final List<RepositoryListener> listeners;
+    private final Query query = new Query(this);
+    private final boolean snapshot;
+    // Owns the index nodes created since the last snapshot, these are
+    // modified in place. Nodes shared with a snapshot are copied instead.
+    private Object owner = new Object();
+    private final @Nullable Projection projection;
+    private final @Nullable Canonicalizer canonicalizer;
+    private final int attachmentCompressionThreshold;
+    private final @Nullable EnvelopeRate envelopeRate;
 
-    final Map<String, TestCaseStarted> testCaseStartedById = new LinkedHashMap<>();
-    final Map<String, TestCaseFinished> testCaseFinishedByTestCaseStartedId = new LinkedHashMap<>();
-    final Map<String, List<TestStepFinished>> testStepsFinishedByTestCaseStartedId = new LinkedHashMap<>();
-    final Map<String, List<TestStepStarted>> testStepsStartedByTestCaseStartedId = new LinkedHashMap<>();
-    final Map<String, TestRunHookStarted> testRunHookStartedById = new LinkedHashMap<>();
-    final Map<String, TestRunHookFinished> testRunHookFinishedByTestRunHookStartedId = new LinkedHashMap<>();
-    final Map<String, Pickle> pickleById = new LinkedHashMap<>();
-    final Map<String, TestCase> testCaseById = new LinkedHashMap<>();
-    final Map<String, Step> stepById = new LinkedHashMap<>();
-    final Map<String, TestStep> testStepById = new LinkedHashMap<>();
-    final Map<String, PickleStep> pickleStepById = new LinkedHashMap<>();
-    final Map<String, Hook> hookById = new LinkedHashMap<>();
-    final Map<String, List<Attachment>> attachmentsByTestCaseStartedId = new LinkedHashMap<>();
-    final Map<String, List<Attachment>> attachmentsByTestRunHookStartedId = new LinkedHashMap<>();
-    final Map<Object, Lineage> lineageById = new HashMap<>();
-    final Map<String, StepDefinition> stepDefinitionById = new LinkedHashMap<>();
-    final Map<String, List<Suggestion>> suggestionsByPickleStepId = new LinkedHashMap<>();
-    final List<UndefinedParameterType> undefinedParameterTypes = new ArrayList<>();
+    PersistentMap<String, TestCaseStarted> testCaseStartedById = PersistentMap.empty();
+    PersistentMap<String, TestCaseFinished> testCaseFinishedByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, TestCaseFinished> finalTestCaseFinishedByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<TestCaseStarted>> testCaseStartedByTestCaseId = PersistentMap.empty();
+    PersistentMap<String, TestCaseStarted> finalTestCaseStartedByTestCaseId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<TestCaseStarted>> testCaseStartedByWorkerId = PersistentMap.empty();
+    PersistentMap<String, TestCaseTiming> testCaseTimingByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<TestStepFinished>> testStepsFinishedByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<TestStepStarted>> testStepsStartedByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, TestRunHookStarted> testRunHookStartedById = PersistentMap.empty();
+    PersistentMap<String, TestRunHookFinished> testRunHookFinishedByTestRunHookStartedId = PersistentMap.empty();
+    PersistentMap<String, Pickle> pickleById = PersistentMap.empty();
+    PersistentMap<String, TestCase> testCaseById = PersistentMap.empty();
+    PersistentMap<String, Step> stepById = PersistentMap.empty();
+    PersistentMap<String, TestStep> testStepById = PersistentMap.empty();
+    PersistentMap<String, PickleStep> pickleStepById = PersistentMap.empty();
+    PersistentMap<String, Hook> hookById = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<StoredAttachment>> attachmentsByTestCaseStartedId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<StoredAttachment>> attachmentsByTestRunHookStartedId = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<StoredAttachment>> attachmentsByTestRunStartedId = PersistentMap.empty();
+    PersistentMap<String, AttachmentBody> attachmentBodyByHash = PersistentMap.empty();
+    PersistentMap<Object, Lineage> lineageById = PersistentMap.empty();
+    PersistentMap<String, GherkinDocument> gherkinDocumentWithoutLineageByUri = PersistentMap.empty();
+    /**
+     * Set after the lineages of all documents were created, so lineages can
+     * be found without holding the lock.
+     */
+    private volatile boolean allLineagesCreated = true;
+    PersistentMap<Object, Summary> summaryByElement = PersistentMap.empty();
+    PersistentMap<String, StepDefinition> stepDefinitionById = PersistentMap.empty();
+    PersistentMap<String, PersistentVector<Suggestion>> suggestionsByPickleStepId = PersistentMap.empty();
+    PersistentVector<UndefinedParameterType> undefinedParameterTypes = PersistentVector.empty();
 
     @Nullable Meta meta;
     @Nullable TestRunStarted testRunStarted;
     @Nullable TestRunFinished testRunFinished;
 
-    private Repository(Set<RepositoryFeature> features) {
+    /**
+     * Incremented on every update. Used to memoize query results.
+     */
+    long epoch;
+    long[] messageCounts = new long[MessageType.values().length];
+    long attachmentBytes;
+    /**
+     * The total duration of all test cases that will not be retried.
+     */
+    long finalTestCaseDurationNanos;
+
+    private Repository(Set<RepositoryFeature> features, List<RepositoryListener> listeners, @Nullable Projection projection, int attachmentCompressionThreshold) {
         this.features = features;
+        this.listeners = listeners;
+        this.snapshot = false;
+        this.projection = projection;
+        this.canonicalizer = features.contains(CANONICALIZE_VALUES) ? new Canonicalizer() : null;
+        this.attachmentCompressionThreshold = attachmentCompressionThreshold;
+        this.envelopeRate = new EnvelopeRate();
+    }
+
+    private Repository(Repository source) {
+        this.features = source.features;
+        this.listeners = Collections.emptyList();
+        this.snapshot = true;
+        this.projection = source.projection;
+        this.canonicalizer = source.canonicalizer == null ? null : source.canonicalizer.copyStatistics();
+        this.attachmentCompressionThreshold = source.attachmentCompressionThreshold;
+        this.envelopeRate = null;
+        this.testCaseStartedById = source.testCaseStartedById;
+        this.testCaseFinishedByTestCaseStartedId = source.testCaseFinishedByTestCaseStartedId;
+        this.finalTestCaseFinishedByTestCaseStartedId = source.finalTestCaseFinishedByTestCaseStartedId;
+        this.testCaseStartedByTestCaseId = source.testCaseStartedByTestCaseId;
+        this.finalTestCaseStartedByTestCaseId = source.finalTestCaseStartedByTestCaseId;
+        this.testCaseStartedByWorkerId = source.testCaseStartedByWorkerId;
+        this.testCaseTimingByTestCaseStartedId = source.testCaseTimingByTestCaseStartedId;
+        this.testStepsFinishedByTestCaseStartedId = source.testStepsFinishedByTestCaseStartedId;
+        this.testStepsStartedByTestCaseStartedId = source.testStepsStartedByTestCaseStartedId;
+        this.testRunHookStartedById = source.testRunHookStartedById;
+        this.testRunHookFinishedByTestRunHookStartedId = source.testRunHookFinishedByTestRunHookStartedId;
+        this.pickleById = source.pickleById;
+        this.testCaseById = source.testCaseById;
+        this.stepById = source.stepById;
+        this.testStepById = source.testStepById;
+        this.pickleStepById = source.pickleStepById;
+        this.hookById = source.hookById;
+        this.attachmentsByTestCaseStartedId = source.attachmentsByTestCaseStartedId;
+        this.attachmentsByTestRunHookStartedId = source.attachmentsByTestRunHookStartedId;
+        this.attachmentsByTestRunStartedId = source.attachmentsByTestRunStartedId;
+        this.attachmentBodyByHash = source.attachmentBodyByHash;
+        this.lineageById = source.lineageById;
+        this.gherkinDocumentWithoutLineageByUri = source.gherkinDocumentWithoutLineageByUri;
+        this.allLineagesCreated = source.allLineagesCreated;
+        this.summaryByElement = source.summaryByElement;
+        this.stepDefinitionById = source.stepDefinitionById;
+        this.suggestionsByPickleStepId = source.suggestionsByPickleStepId;
+        this.undefinedParameterTypes = source.undefinedParameterTypes;
+        this.meta = source.meta;
+        this.testRunStarted = source.testRunStarted;
+        this.testRunFinished = source.testRunFinished;
+        this.epoch = source.epoch;
+        this.messageCounts = source.messageCounts.clone();
+        this.attachmentBytes = source.attachmentBytes;
+        this.finalTestCaseDurationNanos = source.finalTestCaseDurationNanos;
     }
 
     public static Builder builder() {
         return new Builder();
     }
 
-    public void update(Envelope envelope) {
+    /**
+     * Creates an immutable snapshot of this repository.
+     * <p>
+     * The snapshot can be queried from any number of threads while this
+     * repository continues to be updated. Messages and indexes are shared
+     * with the snapshot. When this repository modifies an index afterwards,
+     * only the part of the index that is modified is copied. Creating a
+     * snapshot takes constant time.
+     *
+     * @return a snapshot of the current state of this repository
+     */
+    public synchronized Repository snapshot() {
+        if (snapshot) {
+            return this;
+        }
+        Repository copy = new Repository(this);
+        owner = new Object();
+        return copy;
+    }
+
+    /**
+     * Merges repositories that contain parts of the same test run.
+     * <p>
+     * Intended for test runs that are split across multiple processes or
+     * machines. The merged repository contains the messages of all
+     * repositories, with the following exceptions:
+     * <ul>
+     * <li>Messages with the same id, such as the {@link Pickle pickles} and
+     * {@link GherkinDocument Gherkin documents} that each part of the test
+     * run parsed, are included once. So are the messages that belong to a
+     * message with an id, such as the steps of a {@link TestCaseStarted}.
+     * <li>Summaries, statistics and durations are recomputed from the merged
+     * messages. Messages that are not retained, such as sources, are counted
+     * as the maximum of any repository, each part of a test run typically
+     * parses the same sources.
+     * <li>Test cases, their steps and test run hooks are ordered by time. The
+     * messages of each repository keep their order, the messages of
+     * different repositories are interleaved by their timestamps. The test
+     * cases started by each worker are listed in the order they started, the
+     * attempts of each test case by their attempt number.
+     * <li>The {@link Meta} of the first repository is included.
+     * <li>The earliest {@link TestRunStarted} is included.
+     * <li>The latest {@link TestRunFinished} is included. The test run is
+     * only successful if all parts were successful.
+     * </ul>
+     * <p>
+     * The merged repository has the features of all merged repositories and
+     * no listeners. The merged repositories are not modified and can continue
+     * to be updated.
+     *
+     * @param repositories to merge
+     * @return a new repository with the messages of all repositories
+     */
+    public static Repository merge(Repository... repositories) {
+        List<Repository> sources = new ArrayList<>(repositories.length);
+        EnumSet<RepositoryFeature> features = EnumSet.noneOf(RepositoryFeature.class);
+        for (Repository repository : repositories) {
+            Repository source = repository.snapshot();
+            sources.add(source);
+            features.addAll(source.features);
+        }
+        Repository merged = new Repository(
+                features,
+                Collections.emptyList(),
+                sources.isEmpty() ? null : sources.get(0).projection,
+                sources.isEmpty() ? DEFAULT_ATTACHMENT_COMPRESSION_THRESHOLD : sources.get(0).attachmentCompressionThreshold
+        );
+        // Each task writes a different field, joining the stream publishes them
+        List<Runnable> tasks = List.of(
+                () -> merged.testCaseStartedById = mergeMapsByTime(sources, source -> source.testCaseStartedById, TestCaseStarted::getTimestamp),
+                () -> merged.testCaseFinishedByTestCaseStartedId = mergeMapsByTime(sources, source -> source.testCaseFinishedByTestCaseStartedId, TestCaseFinished::getTimestamp),
+                () -> merged.finalTestCaseFinishedByTestCaseStartedId = mergeMapsByTime(sources, source -> source.finalTestCaseFinishedByTestCaseStartedId, TestCaseFinished::getTimestamp),
+                () -> merged.testCaseTimingByTestCaseStartedId = mergeMaps(merged, sources, source -> source.testCaseTimingByTestCaseStartedId),
+                () -> merged.testStepsFinishedByTestCaseStartedId = mergeMapsByTime(sources, source -> source.testStepsFinishedByTestCaseStartedId, steps -> steps.get(0).getTimestamp()),
+                () -> merged.testStepsStartedByTestCaseStartedId = mergeMapsByTime(sources, source -> source.testStepsStartedByTestCaseStartedId, steps -> steps.get(0).getTimestamp()),
+                () -> merged.testRunHookStartedById = mergeMapsByTime(sources, source -> source.testRunHookStartedById, TestRunHookStarted::getTimestamp),
+                () -> merged.testRunHookFinishedByTestRunHookStartedId = mergeMapsByTime(sources, source -> source.testRunHookFinishedByTestRunHookStartedId, TestRunHookFinished::getTimestamp),
+                () -> merged.pickleById = mergeMaps(merged, sources, source -> source.pickleById),
+                () -> merged.testCaseById = mergeMaps(merged, sources, source -> source.testCaseById),
+                () -> merged.stepById = mergeMaps(merged, sources, source -> source.stepById),
+                () -> merged.testStepById = mergeMaps(merged, sources, source -> source.testStepById),
+                () -> merged.pickleStepById = mergeMaps(merged, sources, source -> source.pickleStepById),
+                () -> merged.hookById = mergeMaps(merged, sources, source -> source.hookById),
+                () -> merged.attachmentsByTestCaseStartedId = mergeMaps(merged, sources, source -> source.attachmentsByTestCaseStartedId),
+                () -> merged.attachmentsByTestRunHookStartedId = mergeMaps(merged, sources, source -> source.attachmentsByTestRunHookStartedId),
+                () -> merged.attachmentsByTestRunStartedId = mergeMaps(merged, sources, source -> source.attachmentsByTestRunStartedId),
+                () -> merged.attachmentBodyByHash = mergeMaps(merged, sources, source -> source.attachmentBodyByHash),
+                () -> merged.lineageById = mergeMaps(merged, sources, source -> source.lineageById),
+                () -> merged.gherkinDocumentWithoutLineageByUri = mergeMaps(merged, sources, source -> source.gherkinDocumentWithoutLineageByUri),
+                () -> merged.stepDefinitionById = mergeMaps(merged, sources, source -> source.stepDefinitionById),
+                () -> merged.suggestionsByPickleStepId = mergeMaps(merged, sources, source -> source.suggestionsByPickleStepId),
+                () -> sources.stream()
+                        .flatMap(source -> source.undefinedParameterTypes.stream())
+                        .distinct()
+                        .forEachOrdered(undefinedParameterType -> merged.undefinedParameterTypes = merged.undefinedParameterTypes.append(undefinedParameterType, merged.owner))
+        );
+        tasks.parallelStream().forEach(Runnable::run);
+        merged.allLineagesCreated = merged.gherkinDocumentWithoutLineageByUri.isEmpty();
+
+        for (Repository source : sources) {
+            if (merged.meta == null) {
+                merged.meta = source.meta;
+            }
+            merged.testRunStarted = earliest(merged.testRunStarted, source.testRunStarted);
+            merged.testRunFinished = latest(merged.testRunFinished, source.testRunFinished);
+            merged.epoch += source.epoch;
+        }
+        // Ordered by the time they started, so are the test cases of each worker
+        merged.testCaseStartedById.values().forEach(testCaseStarted ->
+                testCaseStarted.getWorkerId().ifPresent(workerId ->
+                        merged.testCaseStartedByWorkerId = merged.append(merged.testCaseStartedByWorkerId, workerId, testCaseStarted)));
+        // Attempts of a test case may have started in different repositories
+        merged.testCaseStartedById.values().stream()
+                .sorted(comparing(TestCaseStarted::getAttempt))
+                .forEachOrdered(testCaseStarted ->
+                        merged.testCaseStartedByTestCaseId = merged.append(merged.testCaseStartedByTestCaseId, testCaseStarted.getTestCaseId(), testCaseStarted));
+        merged.finalTestCaseFinishedByTestCaseStartedId.keySet().forEach(testCaseStartedId -> {
+            TestCaseStarted testCaseStarted = merged.testCaseStartedById.get(testCaseStartedId);
+            if (testCaseStarted != null) {
+                merged.finalTestCaseStartedByTestCaseId = merged.finalTestCaseStartedByTestCaseId.with(testCaseStarted.getTestCaseId(), testCaseStarted, merged.owner);
+            }
+            TestCaseTiming timing = merged.testCaseTimingByTestCaseStartedId.get(testCaseStartedId);
+            if (timing != null && timing.isFinished()) {
+                merged.finalTestCaseDurationNanos += timing.durationNanos();
+            }
+        });
+        merged.attachmentBytes = merged.countAttachmentBytes();
+        for (MessageType messageType : MessageType.values()) {
+            merged.messageCounts[messageType.ordinal()] = merged.countMessages(messageType, sources);
+        }
+        // A test case and its pickle may be in different sources
+        if (merged.features.contains(INCLUDE_SUMMARIES)) {
+            merged.finalTestCaseFinishedByTestCaseStartedId.values().forEach(merged::updateSummaries);
+        }
+        return merged;
+    }
+
+    private long countAttachmentBytes() {
+        // Bodies may be shared between attachments
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = 0;
+        for (PersistentMap<String, PersistentVector<StoredAttachment>> index : List.of(attachmentsByTestCaseStartedId, attachmentsByTestRunHookStartedId, attachmentsByTestRunStartedId)) {
+            for (List<StoredAttachment> attachments : index.values()) {
+                for (StoredAttachment attachment : attachments) {
+                    AttachmentBody body = attachment.body();
+                    if (body == null && counted.add(attachment)) {
+                        bytes += AttachmentBody.retainedBytes(attachment.metadata().getBody());
+                    } else if (body != null && counted.add(body)) {
+                        bytes += body.retainedBytes();
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the messages of a type in a merged repository.
+     */
+    private long countMessages(MessageType messageType, List<Repository> sources) {
+        if (!sources.stream().allMatch(source -> source.retains(messageType))) {
+            return maxMessageCount(messageType, sources);
+        }
+        switch (messageType) {
+            case ATTACHMENT:
+                return countAttachments();
+            case GHERKIN_DOCUMENT:
+                return gherkinDocumentsByUri().size();
+            case HOOK:
+                return hookById.size();
+            case META:
+                return meta == null ? 0 : 1;
+            case PICKLE:
+                return pickleById.size();
+            case STEP_DEFINITION:
+                return stepDefinitionById.size();
+            case SUGGESTION:
+                return countMessages(suggestionsByPickleStepId);
+            case TEST_CASE:
+                return testCaseById.size();
+            case TEST_CASE_FINISHED:
+                return testCaseFinishedByTestCaseStartedId.size();
+            case TEST_CASE_STARTED:
+                return testCaseStartedById.size();
+            case TEST_RUN_FINISHED:
+                return testRunFinished == null ? 0 : 1;
+            case TEST_RUN_HOOK_FINISHED:
+                return testRunHookFinishedByTestRunHookStartedId.size();
+            case TEST_RUN_HOOK_STARTED:
+                return testRunHookStartedById.size();
+            case TEST_RUN_STARTED:
+                return testRunStarted == null ? 0 : 1;
+            case TEST_STEP_FINISHED:
+                return countMessages(testStepsFinishedByTestCaseStartedId);
+            case TEST_STEP_STARTED:
+                return countMessages(testStepsStartedByTestCaseStartedId);
+            case UNDEFINED_PARAMETER_TYPE:
+                return undefinedParameterTypes.size();
+            default:
+                return maxMessageCount(messageType, sources);
+        }
+    }
+
+    private static long maxMessageCount(MessageType messageType, List<Repository> sources) {
+        return sources.stream()
+                .mapToLong(source -> source.messageCounts[messageType.ordinal()])
+                .max()
+                .orElse(0);
+    }
+
+    private long countAttachments() {
+        Set<StoredAttachment> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        attachmentsByTestCaseStartedId.values().forEach(counted::addAll);
+        attachmentsByTestRunHookStartedId.values().forEach(counted::addAll);
+        attachmentsByTestRunStartedId.values().forEach(counted::addAll);
+        return counted.size();
+    }
+
+    private static <K, V> PersistentMap<K, V> mergeMaps(Repository merged, List<Repository> sources, Function<Repository, PersistentMap<K, V>> index) {
+        if (sources.isEmpty()) {
+            return PersistentMap.empty();
+        }
+        // Shares the structure of the first index
+        PersistentMap<K, V> mergedIndex = index.apply(sources.get(0));
+        for (Repository source : sources.subList(1, sources.size())) {
+            for (Map.Entry<K, V> entry : index.apply(source).entrySet()) {
+                if (!mergedIndex.containsKey(entry.getKey())) {
+                    mergedIndex = mergedIndex.with(entry.getKey(), entry.getValue(), merged.owner);
+                }
+            }
+        }
+        return mergedIndex;
+    }
+
+    /**
+     * Merges indexes of messages that were added in the order they
+     * happened. Mappings with an earlier timestamp are added first.
+     */
+    private static <K, V> PersistentMap<K, V> mergeMapsByTime(List<Repository> sources, Function<Repository, PersistentMap<K, V>> index, Function<V, Timestamp> timestamp) {
+        if (sources.size() == 1) {
+            return index.apply(sources.get(0));
+        }
+        Object owner = new Object();
+        PriorityQueue<Cursor<K, V>> cursors = new PriorityQueue<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Cursor<K, V> cursor = new Cursor<>(i, index.apply(sources.get(i)).entrySet().iterator(), timestamp);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        PersistentMap<K, V> mergedIndex = PersistentMap.empty();
+        Cursor<K, V> cursor;
+        while ((cursor = cursors.poll()) != null) {
+            Map.Entry<K, V> entry = cursor.current();
+            if (!mergedIndex.containsKey(entry.getKey())) {
+                mergedIndex = mergedIndex.with(entry.getKey(), entry.getValue(), owner);
+            }
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return mergedIndex;
+    }
+
+    /**
+     * The next mapping of an index that is being merged. Mappings with the
+     * same timestamp are taken from the first repository first.
+     */
+    private static final class Cursor<K, V> implements Comparable<Cursor<K, V>> {
+        private final int source;
+        private final Iterator<Map.Entry<K, V>> entries;
+        private final Function<V, Timestamp> timestamp;
+        private Map.@Nullable Entry<K, V> current;
+        private long epochNanos;
+
+        Cursor(int source, Iterator<Map.Entry<K, V>> entries, Function<V, Timestamp> timestamp) {
+            this.source = source;
+            this.entries = entries;
+            this.timestamp = timestamp;
+        }
+
+        boolean advance() {
+            if (!entries.hasNext()) {
+                return false;
+            }
+            Map.Entry<K, V> next = entries.next();
+            current = next;
+            epochNanos = TestCaseTiming.toEpochNanos(timestamp.apply(next.getValue()));
+            return true;
+        }
+
+        Map.Entry<K, V> current() {
+            return requireNonNull(current);
+        }
+
+        @Override
+        public int compareTo(Cursor<K, V> other) {
+            int byTime = Long.compare(epochNanos, other.epochNanos);
+            return byTime != 0 ? byTime : Integer.compare(source, other.source);
+        }
+    }
+
+    private static @Nullable TestRunStarted earliest(@Nullable TestRunStarted a, @Nullable TestRunStarted b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return toInstant(b.getTimestamp()).isBefore(toInstant(a.getTimestamp())) ? b : a;
+    }
+
+    private static @Nullable TestRunFinished latest(@Nullable TestRunFinished a, @Nullable TestRunFinished b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        TestRunFinished latest = toInstant(b.getTimestamp()).isAfter(toInstant(a.getTimestamp())) ? b : a;
+        TestRunFinished failed = !a.getSuccess() ? a : !b.getSuccess() ? b : null;
+        if (failed == null || !latest.getSuccess()) {
+            return latest;
+        }
+        return new TestRunFinished(
+                failed.getMessage().orElse(null),
+                false,
+                latest.getTimestamp(),
+                failed.getException().orElse(null),
+                latest.getTestRunStartedId().orElse(null)
+        );
+    }
+
+    /**
+     * Measures the size of this repository.
+     * <p>
+     * Estimating the retained heap visits every message in the repository.
+     * This is relatively expensive and not intended to be done frequently.
+     * The estimate is made on a {@link #snapshot()}, so updates are not
+     * blocked while it is made.
+     *
+     * @return the statistics of this repository
+     */
+    public RepositoryStatistics statistics() {
+        Repository snapshot = snapshot();
+        Map<String, Object> indexes = snapshot.indexesOfSnapshot();
+        MessageSizeEstimator estimator = new MessageSizeEstimator();
+        Map<String, Long> estimatedIndexBytes = new LinkedHashMap<>();
+        indexes.forEach((name, index) -> estimatedIndexBytes.put(name, index instanceof Map
+                ? estimator.estimate((Map<?, ?>) index)
+                : estimator.estimate(index)));
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (MessageType messageType : MessageType.values()) {
+            long count = snapshot.messageCounts[messageType.ordinal()];
+            if (count > 0) {
+                counts.put(messageType.key(), count);
+            }
+        }
+        return new RepositoryStatistics(
+                countMessages(indexes),
+                estimatedIndexBytes,
+                counts,
+                snapshot.attachmentBytes,
+                snapshot.canonicalizer == null ? 0 : snapshot.canonicalizer.deduplicatedCount(),
+                snapshot.canonicalizer == null ? 0 : snapshot.canonicalizer.deduplicatedBytes()
+        );
+    }
+
+    synchronized Map<String, Integer> indexSizes() {
+        // Counted while holding the lock rather than on a snapshot, so later
+        // updates can continue to modify the indexes in place
+        return countMessages(indexes());
+    }
+
+    private synchronized Map<String, Object> indexesOfSnapshot() {
+        // A snapshot replaces its lineage indexes as lineages are created,
+        // the indexes themselves never change
+        return indexes();
+    }
+
+    private static Map<String, Integer> countMessages(Map<String, Object> indexes) {
+        Map<String, Integer> indexSizes = new LinkedHashMap<>();
+        indexes.forEach((name, index) -> indexSizes.put(name, countMessages(index)));
+        return indexSizes;
+    }
+
+    synchronized long envelopeCount() {
+        return epoch;
+    }
+
+    synchronized double envelopesPerSecond() {
+        return envelopeRate == null ? 0 : envelopeRate.perSecond(epoch);
+    }
+
+    synchronized int inFlightTestCaseCount() {
+        return testCaseStartedById.size() - testCaseFinishedByTestCaseStartedId.size();
+    }
+
+    synchronized long attachmentByteCount() {
+        return attachmentBytes;
+    }
+
+    /**
+     * Whether messages of the given type are retained, or otherwise
+     * affect the state of this repository.
+     */
+    boolean retains(MessageType messageType) {
+        switch (messageType) {
+            case ATTACHMENT:
+                return features.contains(INCLUDE_ATTACHMENTS);
+            case GHERKIN_DOCUMENT:
+                return features.contains(INCLUDE_GHERKIN_DOCUMENTS);
+            case HOOK:
+                return features.contains(INCLUDE_HOOKS);
+            case STEP_DEFINITION:
+                return features.contains(INCLUDE_STEP_DEFINITIONS);
+            case SUGGESTION:
+                return features.contains(INCLUDE_SUGGESTIONS);
+            case UNDEFINED_PARAMETER_TYPE:
+                return features.contains(INCLUDE_UNDEFINED_PARAMETER_TYPES);
+            case PARAMETER_TYPE:
+            case PARSE_ERROR:
+            case SOURCE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Counts a message that was not applied because it would not be
+     * retained.
+     */
+    synchronized void skip(MessageType messageType) {
+        if (snapshot) {
+            throw new UnsupportedOperationException("A snapshot can not be updated");
+        }
+        messageCounts[messageType.ordinal()]++;
+    }
+
+    private static int countMessages(Object index) {
+        if (index instanceof Collection) {
+            return ((Collection<?>) index).size();
+        }
+        int count = 0;
+        for (Object value : ((Map<?, ?>) index).values()) {
+            count += value instanceof Collection ? ((Collection<?>) value).size() : 1;
+        }
+        return count;
+    }
+
+    private Map<String, Object> indexes() {
+        Map<String, Object> indexes = new LinkedHashMap<>();
+        indexes.put("testCaseStartedById", testCaseStartedById);
+        indexes.put("testCaseFinishedByTestCaseStartedId", testCaseFinishedByTestCaseStartedId);
+        indexes.put("finalTestCaseFinishedByTestCaseStartedId", finalTestCaseFinishedByTestCaseStartedId);
+        indexes.put("testCaseStartedByTestCaseId", testCaseStartedByTestCaseId);
+        indexes.put("finalTestCaseStartedByTestCaseId", finalTestCaseStartedByTestCaseId);
+        indexes.put("testCaseStartedByWorkerId", testCaseStartedByWorkerId);
+        indexes.put("testCaseTimingByTestCaseStartedId", testCaseTimingByTestCaseStartedId);
+        indexes.put("testStepsFinishedByTestCaseStartedId", testStepsFinishedByTestCaseStartedId);
+        indexes.put("testStepsStartedByTestCaseStartedId", testStepsStartedByTestCaseStartedId);
+        indexes.put("testRunHookStartedById", testRunHookStartedById);
+        indexes.put("testRunHookFinishedByTestRunHookStartedId", testRunHookFinishedByTestRunHookStartedId);
+        indexes.put("pickleById", pickleById);
+        indexes.put("testCaseById", testCaseById);
+        indexes.put("stepById", stepById);
+        indexes.put("testStepById", testStepById);
+        indexes.put("pickleStepById", pickleStepById);
+        indexes.put("hookById", hookById);
+        indexes.put("attachmentsByTestCaseStartedId", attachmentsByTestCaseStartedId);
+        indexes.put("attachmentsByTestRunHookStartedId", attachmentsByTestRunHookStartedId);
+        indexes.put("attachmentsByTestRunStartedId", attachmentsByTestRunStartedId);
+        indexes.put("attachmentBodyByHash", attachmentBodyByHash);
+        indexes.put("lineageById", lineageById);
+        indexes.put("gherkinDocumentWithoutLineageByUri", gherkinDocumentWithoutLineageByUri);
+        indexes.put("summaryByElement", summaryByElement);
+        indexes.put("stepDefinitionById", stepDefinitionById);
+        indexes.put("suggestionsByPickleStepId", suggestionsByPickleStepId);
+        indexes.put("undefinedParameterTypes", undefinedParameterTypes);
+        return indexes;
+    }
+
+    public synchronized void update(Envelope envelope) {
+        if (snapshot) {
+            throw new UnsupportedOperationException("A snapshot can not be updated");
+        }
+        epoch++;
+        if (envelopeRate != null) {
+            envelopeRate.sample(epoch);
+        }
+        MessageType messageType = MessageType.of(envelope);
+        messageCounts[messageType.ordinal()]++;
+        UpdateEvent event = new UpdateEvent();
+        event.begin();
         envelope.getMeta().ifPresent(this::updateMeta);
         envelope.getTestRunStarted().ifPresent(this::updateTestRunStarted);
         envelope.getTestRunFinished().ifPresent(this::updateTestRunFinished);
@@ -111,38 +711,194 @@ public final class Repository {
         if (features.contains(INCLUDE_UNDEFINED_PARAMETER_TYPES)) {
             envelope.getUndefinedParameterType().ifPresent(this::updateUndefinedParameterType);
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.messageType = messageType.key();
+            event.repositorySize = epoch;
+            event.commit();
+        }
+        if (!listeners.isEmpty()) {
+            notifyListeners(envelope);
+        }
+    }
+
+    private void notifyListeners(Envelope envelope) {
+        envelope.getTestStepFinished().ifPresent(event ->
+                listeners.forEach(listener -> listener.onTestStepFinished(query, event)));
+        envelope.getTestCaseFinished()
+                .filter(event -> !event.getWillBeRetried())
+                .ifPresent(event -> listeners.forEach(listener -> listener.onTestCaseFinished(query, event)));
+        if (features.contains(INCLUDE_ATTACHMENTS)) {
+            envelope.getAttachment().ifPresent(event ->
+                    listeners.forEach(listener -> listener.onAttachment(query, event)));
+        }
+        envelope.getTestRunFinished().ifPresent(event ->
+                listeners.forEach(listener -> listener.onTestRunFinished(query, event)));
     }
 
     private void updateAttachment(Attachment attachment) {
+        StoredAttachment stored = storeAttachment(attachment);
         attachment.getTestCaseStartedId()
-                .ifPresent(testCaseStartedId -> this.attachmentsByTestCaseStartedId.compute(testCaseStartedId, updateList(attachment)));
+                .ifPresent(testCaseStartedId -> this.attachmentsByTestCaseStartedId = append(attachmentsByTestCaseStartedId, testCaseStartedId, stored));
         attachment.getTestRunHookStartedId()
-                .ifPresent(testRunHookStartedId -> this.attachmentsByTestRunHookStartedId.compute(testRunHookStartedId, updateList(attachment)));
+                .ifPresent(testRunHookStartedId -> this.attachmentsByTestRunHookStartedId = append(attachmentsByTestRunHookStartedId, testRunHookStartedId, stored));
+        // Attachments of a test case or hook also refer to the test run
+        if (attachment.getTestCaseStartedId().isEmpty() && attachment.getTestRunHookStartedId().isEmpty()) {
+            attachment.getTestRunStartedId()
+                    .ifPresent(testRunStartedId -> this.attachmentsByTestRunStartedId = append(attachmentsByTestRunStartedId, testRunStartedId, stored));
+        }
+    }
+
+    private StoredAttachment storeAttachment(Attachment attachment) {
+        String content = attachment.getBody();
+        boolean compress = features.contains(COMPRESS_ATTACHMENTS) && content.length() >= attachmentCompressionThreshold;
+        boolean deduplicate = features.contains(DEDUPLICATE_ATTACHMENTS);
+        if (!compress && !deduplicate) {
+            attachmentBytes += AttachmentBody.retainedBytes(content);
+            return StoredAttachment.of(attachment);
+        }
+        @Nullable String hash = null;
+        if (deduplicate) {
+            hash = AttachmentBody.hash(content);
+            AttachmentBody existing = attachmentBodyByHash.get(hash);
+            if (existing != null) {
+                return StoredAttachment.of(attachment, existing);
+            }
+        }
+        AttachmentBody body = compress ? AttachmentBody.compressed(content) : AttachmentBody.of(content);
+        attachmentBytes += body.retainedBytes();
+        if (hash != null) {
+            attachmentBodyByHash = attachmentBodyByHash.with(hash, body, owner);
+        }
+        return StoredAttachment.of(attachment, body);
     }
 
     private void updateHook(Hook hook) {
-        this.hookById.put(hook.getId(), hook);
+        this.hookById = hookById.with(hook.getId(), hook, owner);
     }
 
     private void updateTestCaseStarted(TestCaseStarted testCaseStarted) {
-        this.testCaseStartedById.put(testCaseStarted.getId(), testCaseStarted);
+        this.testCaseStartedById = testCaseStartedById.with(testCaseStarted.getId(), testCaseStarted, owner);
+        this.testCaseStartedByTestCaseId = append(testCaseStartedByTestCaseId, testCaseStarted.getTestCaseId(), testCaseStarted);
+        this.testCaseTimingByTestCaseStartedId = testCaseTimingByTestCaseStartedId.with(testCaseStarted.getId(), TestCaseTiming.started(testCaseStarted.getTimestamp()), owner);
+        testCaseStarted.getWorkerId().ifPresent(workerId ->
+                this.testCaseStartedByWorkerId = append(testCaseStartedByWorkerId, workerId, testCaseStarted));
     }
 
     private void updateTestCase(TestCase event) {
-        this.testCaseById.put(event.getId(), event);
-        event.getTestSteps().forEach(testStep -> testStepById.put(testStep.getId(), testStep));
+        if (canonicalizer != null) {
+            event = canonicalizer.testCase(event);
+        }
+        this.testCaseById = testCaseById.with(event.getId(), event, owner);
+        for (TestStep testStep : event.getTestSteps()) {
+            this.testStepById = testStepById.with(testStep.getId(), testStep, owner);
+        }
     }
 
     private void updatePickle(Pickle event) {
-        this.pickleById.put(event.getId(), event);
-        event.getSteps().forEach(pickleStep -> pickleStepById.put(pickleStep.getId(), pickleStep));
+        if (projection != null) {
+            event = projection.pickle(event);
+        }
+        if (canonicalizer != null) {
+            event = canonicalizer.pickle(event);
+        }
+        this.pickleById = pickleById.with(event.getId(), event, owner);
+        for (PickleStep pickleStep : event.getSteps()) {
+            this.pickleStepById = pickleStepById.with(pickleStep.getId(), pickleStep, owner);
+        }
     }
 
     private void updateGherkinDocument(GherkinDocument document) {
-        lineageById.putAll(Lineages.of(document));
+        if (projection != null) {
+            document = projection.gherkinDocument(document);
+        }
+        if (canonicalizer != null) {
+            document = canonicalizer.gherkinDocument(document);
+        }
+        if (features.contains(LAZY_LINEAGE)) {
+            gherkinDocumentWithoutLineageByUri = gherkinDocumentWithoutLineageByUri.with(uriOf(document), document, owner);
+            allLineagesCreated = false;
+        } else {
+            addLineages(document);
+        }
         document.getFeature().ifPresent(this::updateFeature);
     }
 
+    private static String uriOf(GherkinDocument document) {
+        return document.getUri()
+                .orElseThrow(() -> new IllegalArgumentException("document.uri must not be null"));
+    }
+
+    /**
+     * Finds the lineage of a Gherkin document element.
+     *
+     * @param key the key of the element in the lineage index
+     * @param uri the uri of the document that contains the element, if known
+     * @return the lineage of the element or null if not found
+     */
+    @Nullable Lineage findLineage(Object key, @Nullable String uri) {
+        if (!features.contains(LAZY_LINEAGE) || allLineagesCreated) {
+            return lineageById.get(key);
+        }
+        synchronized (this) {
+            Lineage lineage = lineageById.get(key);
+            if (lineage != null) {
+                return lineage;
+            }
+            if (uri != null) {
+                createLineage(uri);
+            } else {
+                createAllLineages();
+            }
+            // Written after the lineages, a reader that sees the flag also
+            // sees the lineages
+            allLineagesCreated = gherkinDocumentWithoutLineageByUri.isEmpty();
+            if (snapshot) {
+                // Later lineages are added to a copy, the indexes of a
+                // snapshot can be read without holding the lock
+                owner = new Object();
+            }
+            return lineageById.get(key);
+        }
+    }
+
+    /**
+     * The Gherkin documents in this repository, ordered by uri.
+     */
+    synchronized Map<String, GherkinDocument> gherkinDocumentsByUri() {
+        // Documents are retained by their lineage, keyed by uri, or until
+        // their lineage is created
+        Map<String, GherkinDocument> documents = new TreeMap<>(gherkinDocumentWithoutLineageByUri);
+        lineageById.forEach((key, lineage) -> {
+            GherkinDocument document = lineage.document();
+            if (document.getUri().filter(key::equals).isPresent()) {
+                documents.put((String) key, document);
+            }
+        });
+        return documents;
+    }
+
+    private void createLineage(String uri) {
+        GherkinDocument document = gherkinDocumentWithoutLineageByUri.get(uri);
+        if (document == null) {
+            return;
+        }
+        gherkinDocumentWithoutLineageByUri = gherkinDocumentWithoutLineageByUri.without(uri, owner);
+        addLineages(document);
+    }
+
+    private void createAllLineages() {
+        if (gherkinDocumentWithoutLineageByUri.isEmpty()) {
+            return;
+        }
+        gherkinDocumentWithoutLineageByUri.values().forEach(this::addLineages);
+        gherkinDocumentWithoutLineageByUri = PersistentMap.empty();
+    }
+
+    private void addLineages(GherkinDocument document) {
+        Lineages.of(document).forEach((key, lineage) -> lineageById = lineageById.with(key, lineage, owner));
+    }
+
     private void updateFeature(io.cucumber.messages.types.Feature feature) {
         feature.getChildren()
                 .forEach(featureChild -> {
@@ -156,15 +912,57 @@ public final class Repository {
     }
 
     private void updateTestStepStarted(TestStepStarted event) {
-        this.testStepsStartedByTestCaseStartedId.compute(event.getTestCaseStartedId(), updateList(event));
+        this.testStepsStartedByTestCaseStartedId = append(testStepsStartedByTestCaseStartedId, event.getTestCaseStartedId(), event);
     }
 
     private void updateTestStepFinished(TestStepFinished event) {
-        this.testStepsFinishedByTestCaseStartedId.compute(event.getTestCaseStartedId(), updateList(event));
+        if (projection != null) {
+            event = projection.testStepFinished(event);
+        }
+        this.testStepsFinishedByTestCaseStartedId = append(testStepsFinishedByTestCaseStartedId, event.getTestCaseStartedId(), event);
     }
 
     private void updateTestCaseFinished(TestCaseFinished event) {
-        this.testCaseFinishedByTestCaseStartedId.put(event.getTestCaseStartedId(), event);
+        this.testCaseFinishedByTestCaseStartedId = testCaseFinishedByTestCaseStartedId.with(event.getTestCaseStartedId(), event, owner);
+        TestCaseTiming timing = testCaseTimingByTestCaseStartedId.get(event.getTestCaseStartedId());
+        if (timing != null) {
+            timing = timing.finish(event.getTimestamp());
+            this.testCaseTimingByTestCaseStartedId = testCaseTimingByTestCaseStartedId.with(event.getTestCaseStartedId(), timing, owner);
+            if (!event.getWillBeRetried()) {
+                finalTestCaseDurationNanos += timing.durationNanos();
+            }
+        }
+        if (!event.getWillBeRetried()) {
+            this.finalTestCaseFinishedByTestCaseStartedId = finalTestCaseFinishedByTestCaseStartedId.with(event.getTestCaseStartedId(), event, owner);
+            TestCaseStarted testCaseStarted = testCaseStartedById.get(event.getTestCaseStartedId());
+            if (testCaseStarted != null) {
+                this.finalTestCaseStartedByTestCaseId = finalTestCaseStartedByTestCaseId.with(testCaseStarted.getTestCaseId(), testCaseStarted, owner);
+            }
+            if (features.contains(INCLUDE_SUMMARIES)) {
+                updateSummaries(event);
+            }
+        }
+    }
+
+    private void updateSummaries(TestCaseFinished event) {
+        Lineage lineage = query.findLineageBy(event).orElse(null);
+        if (lineage == null) {
+            return;
+        }
+        @Nullable TestStepResultStatus status = query.findMostSevereTestStepResultBy(event)
+                .map(TestStepResult::getStatus)
+                .orElse(null);
+        long durationNanos = query.findTestCaseDurationNanosBy(event).orElse(0);
+        // A document has at most one feature, they share a summary
+        updateSummary(uriOf(lineage.document()), status, durationNanos);
+        lineage.rule().ifPresent(rule -> updateSummary(rule.getId(), status, durationNanos));
+        lineage.scenario().ifPresent(scenario -> updateSummary(scenario.getId(), status, durationNanos));
+        lineage.examples().ifPresent(examples -> updateSummary(examples.getId(), status, durationNanos));
+    }
+
+    private void updateSummary(Object key, @Nullable TestStepResultStatus status, long durationNanos) {
+        Summary summary = summaryByElement.getOrDefault(key, Summary.EMPTY);
+        summaryByElement = summaryByElement.with(key, summary.add(status, durationNanos), owner);
     }
 
     private void updateTestRunFinished(TestRunFinished event) {
@@ -176,11 +974,14 @@ public final class Repository {
     }
 
     private void updateTestRunHookStarted(TestRunHookStarted event) {
-        this.testRunHookStartedById.put(event.getId(), event);
+        this.testRunHookStartedById = testRunHookStartedById.with(event.getId(), event, owner);
     }
 
     private void updateTestRunHookFinished(TestRunHookFinished event) {
-        this.testRunHookFinishedByTestRunHookStartedId.put(event.getTestRunHookStartedId(), event);
+        if (projection != null) {
+            event = projection.testRunHookFinished(event);
+        }
+        this.testRunHookFinishedByTestRunHookStartedId = testRunHookFinishedByTestRunHookStartedId.with(event.getTestRunHookStartedId(), event, owner);
     }
 
     private void updateScenario(Scenario scenario) {
@@ -188,15 +989,17 @@ public final class Repository {
     }
 
     private void updateStepDefinition(StepDefinition event) {
-        this.stepDefinitionById.put(event.getId(), event);
+        this.stepDefinitionById = stepDefinitionById.with(event.getId(), event, owner);
     }
 
     private void updateSteps(List<Step> steps) {
-        steps.forEach(step -> stepById.put(step.getId(), step));
+        for (Step step : steps) {
+            this.stepById = stepById.with(step.getId(), step, owner);
+        }
     }
 
     private void updateSuggestions(Suggestion event) {
-        this.suggestionsByPickleStepId.compute(event.getPickleStepId(), updateList(event));
+        this.suggestionsByPickleStepId = append(suggestionsByPickleStepId, event.getPickleStepId(), event);
     }
 
     private void updateMeta(Meta event) {
@@ -204,19 +1007,17 @@ public final class Repository {
     }
 
     private void updateUndefinedParameterType(UndefinedParameterType event) {
-        this.undefinedParameterTypes.add(event);
+        this.undefinedParameterTypes = undefinedParameterTypes.append(event, owner);
     }
 
-    private <K, E> BiFunction<K, List<E>, List<E>> updateList(E element) {
-        return (key, existing) -> {
-            if (existing != null) {
-                existing.add(element);
-                return existing;
-            }
-            List<E> list = new ArrayList<>();
-            list.add(element);
-            return list;
-        };
+    private <K, E> PersistentMap<K, PersistentVector<E>> append(PersistentMap<K, PersistentVector<E>> index, K key, E element) {
+        PersistentVector<E> existing = index.get(key);
+        if (existing == null) {
+            return index.with(key, PersistentVector.<E>empty().append(element, owner), owner);
+        }
+        PersistentVector<E> appended = existing.append(element, owner);
+        // Appended in place, the index already contains the list
+        return appended == existing ? index : index.with(key, appended, owner);
     }
 
     public enum RepositoryFeature {
@@ -261,11 +1062,84 @@ public final class Repository {
          * <p>
          * Disable to reduce memory usage.
          */
-        INCLUDE_UNDEFINED_PARAMETER_TYPES
+        INCLUDE_UNDEFINED_PARAMETER_TYPES,
+
+        /**
+         * Replace equal strings in {@link Pickle}, {@link TestCase} and
+         * {@link GherkinDocument} messages with a shared instance.
+         * <p>
+         * Enable to reduce memory usage, at the cost of recreating these
+         * messages when they are added to the repository.
+         *
+         * @see RepositoryStatistics#deduplicatedCount()
+         */
+        CANONICALIZE_VALUES,
+
+        /**
+         * Omit the doc strings and data tables of {@link PickleStep} and
+         * {@link Step} messages.
+         * <p>
+         * Enable to reduce memory usage.
+         */
+        OMIT_STEP_ARGUMENTS,
+
+        /**
+         * Create the {@link Lineage} of the elements in a
+         * {@link GherkinDocument} when the lineage of an element in that
+         * document is first queried, rather than when the document is added.
+         * <p>
+         * Enable to avoid the cost of creating lineages that are never
+         * queried. Queries by element rather than by {@link Pickle} create the
+         * lineages of all documents at once.
+         */
+        LAZY_LINEAGE,
+
+        /**
+         * Omit the comments and descriptions of {@link GherkinDocument}
+         * messages. Descriptions are replaced by an empty string.
+         * <p>
+         * Enable to reduce memory usage.
+         */
+        OMIT_DESCRIPTIONS_AND_COMMENTS,
+
+        /**
+         * Compress the bodies of {@link Attachment} messages. Bodies are
+         * decompressed when they are queried.
+         * <p>
+         * Enable to reduce memory usage when {@link #INCLUDE_ATTACHMENTS} is
+         * enabled, at the cost of compressing and decompressing bodies.
+         *
+         * @see Builder#attachmentCompressionThreshold(int)
+         */
+        COMPRESS_ATTACHMENTS,
+
+        /**
+         * Retain {@link Attachment} messages with the same body once. Bodies
+         * are identified by their SHA-256 hash.
+         * <p>
+         * Enable to reduce memory usage when {@link #INCLUDE_ATTACHMENTS} is
+         * enabled and the same content is attached many times, at the cost
+         * of hashing every body.
+         */
+        DEDUPLICATE_ATTACHMENTS,
+
+        /**
+         * Maintain a {@link Summary} of the test cases in each document,
+         * feature, rule, scenario and examples, updated as test cases finish.
+         * <p>
+         * Requires {@link #INCLUDE_GHERKIN_DOCUMENTS}, summaries are
+         * maintained through the lineage of each test case.
+         *
+         * @see Query#findSummaryBy(io.cucumber.messages.types.Feature)
+         */
+        INCLUDE_SUMMARIES
     }
 
     public static final class Builder {
         private final EnumSet<RepositoryFeature> features = EnumSet.noneOf(RepositoryFeature.class);
+        private final List<RepositoryListener> listeners = new ArrayList<>();
+        private int testStepResultMessageLength = Integer.MAX_VALUE;
+        private int attachmentCompressionThreshold = DEFAULT_ATTACHMENT_COMPRESSION_THRESHOLD;
 
         private Builder() {
 
@@ -283,8 +1157,84 @@ public final class Repository {
             return this;
         }
 
+        /**
+         * Adds a listener that is notified after a message has been applied.
+         */
+        public Builder listener(RepositoryListener listener) {
+            listeners.add(requireNonNull(listener));
+            return this;
+        }
+
+        /**
+         * Truncates the messages and stack traces of
+         * {@link io.cucumber.messages.types.TestStepResult test step results}
+         * to the given number of characters.
+         * <p>
+         * Use to reduce memory usage.
+         */
+        public Builder testStepResultMessageLength(int maxLength) {
+            if (maxLength < 0) {
+                throw new IllegalArgumentException("maxLength must be positive or zero, was: " + maxLength);
+            }
+            this.testStepResultMessageLength = maxLength;
+            return this;
+        }
+
+        /**
+         * Compresses the bodies of {@link Attachment attachments} of at least
+         * the given number of characters. Defaults to 1024.
+         *
+         * @see RepositoryFeature#COMPRESS_ATTACHMENTS
+         */
+        public Builder attachmentCompressionThreshold(int minLength) {
+            if (minLength < 0) {
+                throw new IllegalArgumentException("minLength must be positive or zero, was: " + minLength);
+            }
+            this.attachmentCompressionThreshold = minLength;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException when {@link RepositoryFeature#INCLUDE_SUMMARIES}
+         *                               is enabled without {@link RepositoryFeature#INCLUDE_GHERKIN_DOCUMENTS}
+         */
         public Repository build() {
-            return new Repository(EnumSet.copyOf(features));
+            if (features.contains(INCLUDE_SUMMARIES) && !features.contains(INCLUDE_GHERKIN_DOCUMENTS)) {
+                throw new IllegalStateException("INCLUDE_SUMMARIES requires INCLUDE_GHERKIN_DOCUMENTS");
+            }
+            Projection projection = new Projection(
+                    features.contains(OMIT_STEP_ARGUMENTS),
+                    features.contains(OMIT_DESCRIPTIONS_AND_COMMENTS),
+                    testStepResultMessageLength);
+            return new Repository(
+                    EnumSet.copyOf(features),
+                    new ArrayList<>(listeners),
+                    projection.isIdentity() ? null : projection,
+                    attachmentCompressionThreshold
+            );
+        }
+
+        /**
+         * Builds a repository that is split into partitions that can be
+         * updated concurrently.
+         *
+         * @param partitions the number of partitions for test case messages
+         * @throws IllegalStateException when listeners were added
+         * @see PartitionedRepository
+         */
+        public PartitionedRepository buildPartitioned(int partitions) {
+            if (partitions < 1) {
+                throw new IllegalArgumentException("partitions must be at least 1, was: " + partitions);
+            }
+            if (!listeners.isEmpty()) {
+                throw new IllegalStateException("A partitioned repository does not support listeners");
+            }
+            Repository global = build();
+            Repository[] partitioned = new Repository[partitions];
+            for (int i = 0; i < partitions; i++) {
+                partitioned[i] = build();
+            }
+            return new PartitionedRepository(global, partitioned);
         }
     }
 }
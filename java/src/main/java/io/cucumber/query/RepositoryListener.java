@@ -0,0 +1,46 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestRunFinished;
+import io.cucumber.messages.types.TestStepFinished;
+
+/**
+ * Listens to changes in a {@link Repository}.
+ * <p>
+ * Listeners are invoked by the thread calling
+ * {@link Repository#update(io.cucumber.messages.types.Envelope)}, after the
+ * message has been applied. The given {@link Query} can be used to find any
+ * messages related to the message that caused the change.
+ *
+ * @see Repository.Builder#listener(RepositoryListener)
+ */
+public interface RepositoryListener {
+
+    /**
+     * Invoked when the final attempt of a test case finished.
+     * <p>
+     * Attempts that will be retried are not included.
+     */
+    default void onTestCaseFinished(Query query, TestCaseFinished testCaseFinished) {
+
+    }
+
+    default void onTestStepFinished(Query query, TestStepFinished testStepFinished) {
+
+    }
+
+    /**
+     * Invoked when an attachment was added.
+     * <p>
+     * Only invoked when
+     * {@link Repository.RepositoryFeature#INCLUDE_ATTACHMENTS} is enabled.
+     */
+    default void onAttachment(Query query, Attachment attachment) {
+
+    }
+
+    default void onTestRunFinished(Query query, TestRunFinished testRunFinished) {
+
+    }
+}
@@ -0,0 +1,104 @@
+package io.cucumber.query;
+
+import org.jspecify.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes live metrics of a {@link Repository} and its {@link Query} as a
+ * platform MXBean.
+ *
+ * <pre>{@code
+ * try (RepositoryMetrics metrics = new RepositoryMetrics(repository, query)) {
+ *     metrics.register("my-reporter");
+ *     ...
+ * }
+ * }</pre>
+ *
+ * The metrics are registered under
+ * {@code io.cucumber.query:type=Repository,name=<name>}.
+ */
+public final class RepositoryMetrics implements RepositoryMetricsMXBean, AutoCloseable {
+
+    private final Repository repository;
+    private final QueryTimings timings;
+    private @Nullable ObjectName objectName;
+
+    public RepositoryMetrics(Repository repository, Query query) {
+        this.repository = requireNonNull(repository);
+        this.timings = query.recordTimings();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name used to identify the repository
+     * @throws IllegalStateException if the metrics could not be registered
+     */
+    public synchronized void register(String name) {
+        if (objectName != null) {
+            throw new IllegalStateException("Already registered as " + objectName);
+        }
+        try {
+            ObjectName objectName = new ObjectName("io.cucumber.query:type=Repository,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics for " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server, if registered.
+     */
+    @Override
+    public synchronized void close() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister metrics " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getEnvelopeCount() {
+        return repository.envelopeCount();
+    }
+
+    @Override
+    public double getEnvelopesPerSecond() {
+        return repository.envelopesPerSecond();
+    }
+
+    @Override
+    public int getInFlightTestCaseCount() {
+        return repository.inFlightTestCaseCount();
+    }
+
+    @Override
+    public long getAttachmentBytes() {
+        return repository.attachmentByteCount();
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return repository.indexSizes();
+    }
+
+    @Override
+    public Map<String, Long> getCumulativeQueryNanos() {
+        return timings.cumulativeNanos();
+    }
+}
@@ -0,0 +1,51 @@
+package io.cucumber.query;
+
+import java.util.Map;
+
+/**
+ * Live metrics of a {@link Repository} and its {@link Query}.
+ *
+ * @see RepositoryMetrics
+ */
+public interface RepositoryMetricsMXBean {
+
+    /**
+     * The number of messages applied to the repository.
+     */
+    long getEnvelopeCount();
+
+    /**
+     * The average number of messages applied per second over the last ten
+     * seconds.
+     * <p>
+     * The message count is sampled at most once a second as messages are
+     * applied, reading the rate does not affect it. Use
+     * {@link #getEnvelopeCount()} to compute a rate over a different window.
+     */
+    double getEnvelopesPerSecond();
+
+    /**
+     * The number of test cases that were started but have not finished yet.
+     */
+    int getInFlightTestCaseCount();
+
+    /**
+     * The number of bytes of the attachment bodies retained by the
+     * repository.
+     */
+    long getAttachmentBytes();
+
+    /**
+     * The number of messages held by each index of the repository.
+     * <p>
+     * Counted without taking a snapshot of the repository, but messages are
+     * not applied while counting.
+     */
+    Map<String, Integer> getIndexSizes();
+
+    /**
+     * The cumulative time in nanoseconds spent in queries that scan the
+     * repository, by query method.
+     */
+    Map<String, Long> getCumulativeQueryNanos();
+}
@@ -0,0 +1,102 @@
+package io.cucumber.query;
+
+import java.util.Map;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Statistics of a {@link Repository}.
+ * <p>
+ * Can be used to measure the effect of the
+ * {@linkplain Repository.RepositoryFeature features} of a repository on its
+ * memory usage.
+ *
+ * @see Repository#statistics()
+ */
+public final class RepositoryStatistics {
+
+    private final Map<String, Integer> indexSizes;
+    private final Map<String, Long> estimatedIndexBytes;
+    private final Map<String, Long> messageCounts;
+    private final long attachmentBytes;
+    private final long deduplicatedCount;
+    private final long deduplicatedBytes;
+
+    RepositoryStatistics(Map<String, Integer> indexSizes, Map<String, Long> estimatedIndexBytes, Map<String, Long> messageCounts, long attachmentBytes, long deduplicatedCount, long deduplicatedBytes) {
+        this.indexSizes = unmodifiableMap(indexSizes);
+        this.estimatedIndexBytes = unmodifiableMap(estimatedIndexBytes);
+        this.messageCounts = unmodifiableMap(messageCounts);
+        this.attachmentBytes = attachmentBytes;
+        this.deduplicatedCount = deduplicatedCount;
+        this.deduplicatedBytes = deduplicatedBytes;
+    }
+
+    /**
+     * The number of messages held by each index of the repository, by the
+     * name of the index.
+     */
+    public Map<String, Integer> indexSizes() {
+        return indexSizes;
+    }
+
+    /**
+     * The estimated heap retained by each index of the repository, by the
+     * name of the index.
+     * <p>
+     * Messages referenced by multiple indexes are attributed to one index
+     * only. Attachment bodies are not included.
+     *
+     * @see #attachmentBytes()
+     */
+    public Map<String, Long> estimatedIndexBytes() {
+        return estimatedIndexBytes;
+    }
+
+    /**
+     * The number of messages applied to the repository, by the name of the
+     * message type as used in an {@link io.cucumber.messages.types.Envelope}.
+     * <p>
+     * Includes messages that were not retained by the repository.
+     */
+    public Map<String, Long> messageCounts() {
+        return messageCounts;
+    }
+
+    /**
+     * The number of bytes of the attachment bodies retained by the
+     * repository.
+     */
+    public long attachmentBytes() {
+        return attachmentBytes;
+    }
+
+    /**
+     * The number of strings that were replaced by a shared instance.
+     *
+     * @see Repository.RepositoryFeature#CANONICALIZE_VALUES
+     */
+    public long deduplicatedCount() {
+        return deduplicatedCount;
+    }
+
+    /**
+     * The estimated heap no longer retained because strings were
+     * replaced by a shared instance, less the heap used to find the
+     * shared instances. May be negative when few values were replaced.
+     *
+     * @see Repository.RepositoryFeature#CANONICALIZE_VALUES
+     */
+    public long estimatedDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+
+    /**
+     * The estimated heap retained by all indexes of the repository, including
+     * attachment bodies.
+     */
+    public long estimatedBytes() {
+        return estimatedIndexBytes.values().stream()
+                .mapToLong(Long::longValue)
+                .sum() + attachmentBytes;
+    }
+}
@@ -0,0 +1,281 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.MessageToNdjsonWriter;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.Hook;
+import io.cucumber.messages.types.Pickle;
+import io.cucumber.messages.types.PickleStep;
+import io.cucumber.messages.types.StepDefinition;
+import io.cucumber.messages.types.Suggestion;
+import io.cucumber.messages.types.TestCase;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestRunHookFinished;
+import io.cucumber.messages.types.TestRunHookStarted;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepStarted;
+import io.cucumber.messages.types.UndefinedParameterType;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes the messages in a {@link Repository} as NDJSON.
+ * <p>
+ * Messages are written in a canonical order in which every message is
+ * written after the messages it refers to:
+ * <ol>
+ * <li>{@link io.cucumber.messages.types.Meta}
+ * <li>{@link GherkinDocument Gherkin documents}, ordered by uri
+ * <li>{@link Pickle Pickles}, step definitions, hooks and undefined
+ * parameter types
+ * <li>{@link io.cucumber.messages.types.TestRunStarted}, followed by the
+ * attachments of the test run
+ * <li>{@link TestCase Test cases} and suggestions
+ * <li>Test run hooks and test cases, ordered by the time they started. Each
+ * followed by their steps, attachments and the message that finished them
+ * <li>{@link io.cucumber.messages.types.TestRunFinished}
+ * </ol>
+ * <p>
+ * Only messages retained by the repository are written. Messages are
+ * written one at a time from the indexes of a {@link Repository#snapshot()}
+ * of the repository, without collecting them first.
+ */
+public final class RepositoryToNdjsonWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Repository repository;
+    private final MessageToNdjsonWriter.Serializer serializer;
+
+    /**
+     * @param repository to write
+     * @param serializer used to write each message, must not close the
+     *                   writer
+     */
+    public RepositoryToNdjsonWriter(Repository repository, MessageToNdjsonWriter.Serializer serializer) {
+        this.repository = requireNonNull(repository);
+        this.serializer = requireNonNull(serializer);
+    }
+
+    /**
+     * Writes all messages in the repository.
+     * <p>
+     * The channel is not closed.
+     *
+     * @param channel to write UTF-8 encoded NDJSON to
+     * @throws IOException when serializing or writing a message failed
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        write(channel, repository.snapshot(), null);
+    }
+
+    /**
+     * Writes the messages of the test cases started that match the filter.
+     * <p>
+     * Only the test cases, pickles and Gherkin documents of the included
+     * test cases are written. Messages that are not specific to a test case,
+     * such as step definitions and test run hooks, are always written.
+     * <p>
+     * The channel is not closed.
+     *
+     * @param channel to write UTF-8 encoded NDJSON to
+     * @param filter  selects the test cases started to include, for
+     *                example only those that failed
+     * @throws IOException when serializing or writing a message failed
+     */
+    public void write(WritableByteChannel channel, Predicate<TestCaseStarted> filter) throws IOException {
+        requireNonNull(filter);
+        Repository snapshot = repository.snapshot();
+        write(channel, snapshot, Included.of(snapshot, filter));
+    }
+
+    private void write(WritableByteChannel channel, Repository snapshot, @Nullable Included included) throws IOException {
+        requireNonNull(channel);
+        Writer writer = Channels.newWriter(channel, UTF_8.newEncoder(), BUFFER_SIZE);
+
+        if (snapshot.meta != null) {
+            write(writer, Envelope.of(snapshot.meta));
+        }
+        for (GherkinDocument document : snapshot.gherkinDocumentsByUri().values()) {
+            if (included == null || document.getUri().filter(included.uris::contains).isPresent()) {
+                write(writer, Envelope.of(document));
+            }
+        }
+        for (Pickle pickle : snapshot.pickleById.values()) {
+            if (included == null || included.pickleIds.contains(pickle.getId())) {
+                write(writer, Envelope.of(pickle));
+            }
+        }
+        for (StepDefinition stepDefinition : snapshot.stepDefinitionById.values()) {
+            write(writer, Envelope.of(stepDefinition));
+        }
+        for (Hook hook : snapshot.hookById.values()) {
+            write(writer, Envelope.of(hook));
+        }
+        for (UndefinedParameterType undefinedParameterType : snapshot.undefinedParameterTypes) {
+            write(writer, Envelope.of(undefinedParameterType));
+        }
+        if (snapshot.testRunStarted != null) {
+            write(writer, Envelope.of(snapshot.testRunStarted));
+        }
+        for (List<StoredAttachment> attachments : snapshot.attachmentsByTestRunStartedId.values()) {
+            for (StoredAttachment attachment : attachments) {
+                write(writer, Envelope.of(attachment.attachment()));
+            }
+        }
+        for (TestCase testCase : snapshot.testCaseById.values()) {
+            if (included == null || included.testCaseIds.contains(testCase.getId())) {
+                write(writer, Envelope.of(testCase));
+            }
+        }
+        for (Pickle pickle : snapshot.pickleById.values()) {
+            if (included == null || included.pickleIds.contains(pickle.getId())) {
+                writeSuggestions(writer, snapshot, pickle);
+            }
+        }
+        writeExecution(writer, snapshot, included);
+        if (snapshot.testRunFinished != null) {
+            write(writer, Envelope.of(snapshot.testRunFinished));
+        }
+        writer.flush();
+    }
+
+    private void writeSuggestions(Writer writer, Repository snapshot, Pickle pickle) throws IOException {
+        for (PickleStep pickleStep : pickle.getSteps()) {
+            for (Suggestion suggestion : snapshot.suggestionsByPickleStepId.getOrDefault(pickleStep.getId(), PersistentVector.empty())) {
+                write(writer, Envelope.of(suggestion));
+            }
+        }
+    }
+
+    private void writeExecution(Writer writer, Repository snapshot, @Nullable Included included) throws IOException {
+        Iterator<TestRunHookStarted> hooks = snapshot.testRunHookStartedById.values().iterator();
+        Iterator<TestCaseStarted> testCases = snapshot.testCaseStartedById.values().iterator();
+        @Nullable TestRunHookStarted hook = next(hooks);
+        @Nullable TestCaseStarted testCase = next(testCases);
+        while (hook != null || testCase != null) {
+            if (hook != null && (testCase == null || startedBefore(hook, testCase))) {
+                writeTestRunHook(writer, snapshot, hook);
+                hook = next(hooks);
+            } else if (testCase != null) {
+                if (included == null || included.testCaseStartedIds.contains(testCase.getId())) {
+                    writeTestCase(writer, snapshot, testCase);
+                }
+                testCase = next(testCases);
+            }
+        }
+    }
+
+    private static <T> @Nullable T next(Iterator<T> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static boolean startedBefore(TestRunHookStarted hook, TestCaseStarted testCase) {
+        return TestCaseTiming.toEpochNanos(hook.getTimestamp()) <= TestCaseTiming.toEpochNanos(testCase.getTimestamp());
+    }
+
+    private void writeTestRunHook(Writer writer, Repository snapshot, TestRunHookStarted hook) throws IOException {
+        write(writer, Envelope.of(hook));
+        for (StoredAttachment attachment : snapshot.attachmentsByTestRunHookStartedId.getOrDefault(hook.getId(), PersistentVector.empty())) {
+            write(writer, Envelope.of(attachment.attachment()));
+        }
+        TestRunHookFinished finished = snapshot.testRunHookFinishedByTestRunHookStartedId.get(hook.getId());
+        if (finished != null) {
+            write(writer, Envelope.of(finished));
+        }
+    }
+
+    private void writeTestCase(Writer writer, Repository snapshot, TestCaseStarted testCase) throws IOException {
+        write(writer, Envelope.of(testCase));
+        List<StoredAttachment> attachments = snapshot.attachmentsByTestCaseStartedId.getOrDefault(testCase.getId(), PersistentVector.empty());
+        List<TestStepStarted> stepsStarted = snapshot.testStepsStartedByTestCaseStartedId.getOrDefault(testCase.getId(), PersistentVector.empty());
+        List<TestStepFinished> stepsFinished = snapshot.testStepsFinishedByTestCaseStartedId.getOrDefault(testCase.getId(), PersistentVector.empty());
+        Set<String> testStepIds = new HashSet<>();
+        for (TestStepStarted stepStarted : stepsStarted) {
+            testStepIds.add(stepStarted.getTestStepId());
+        }
+        Map<String, List<StoredAttachment>> attachmentsByTestStepId = new HashMap<>();
+        for (StoredAttachment attachment : attachments) {
+            Optional<String> testStepId = attachment.testStepId().filter(testStepIds::contains);
+            if (testStepId.isPresent()) {
+                attachmentsByTestStepId.computeIfAbsent(testStepId.get(), id -> new ArrayList<>()).add(attachment);
+            } else {
+                // Attachments of steps that did not start
+                write(writer, Envelope.of(attachment.attachment()));
+            }
+        }
+        Map<String, List<TestStepFinished>> stepsFinishedByTestStepId = new HashMap<>();
+        for (TestStepFinished stepFinished : stepsFinished) {
+            stepsFinishedByTestStepId.computeIfAbsent(stepFinished.getTestStepId(), id -> new ArrayList<>()).add(stepFinished);
+        }
+        for (TestStepStarted stepStarted : stepsStarted) {
+            String testStepId = stepStarted.getTestStepId();
+            write(writer, Envelope.of(stepStarted));
+            for (StoredAttachment attachment : attachmentsByTestStepId.getOrDefault(testStepId, emptyList())) {
+                write(writer, Envelope.of(attachment.attachment()));
+            }
+            for (TestStepFinished stepFinished : stepsFinishedByTestStepId.getOrDefault(testStepId, emptyList())) {
+                write(writer, Envelope.of(stepFinished));
+            }
+        }
+        TestCaseFinished finished = snapshot.testCaseFinishedByTestCaseStartedId.get(testCase.getId());
+        if (finished != null) {
+            write(writer, Envelope.of(finished));
+        }
+    }
+
+    private void write(Writer writer, Envelope envelope) throws IOException {
+        serializer.writeValue(writer, envelope);
+        writer.write('\n');
+    }
+
+    /**
+     * The messages referenced by the test cases started that match a
+     * filter.
+     */
+    private static final class Included {
+        private final Set<String> testCaseStartedIds = new HashSet<>();
+        private final Set<String> testCaseIds = new HashSet<>();
+        private final Set<String> pickleIds = new HashSet<>();
+        private final Set<String> uris = new HashSet<>();
+
+        static Included of(Repository snapshot, Predicate<TestCaseStarted> filter) {
+            Included included = new Included();
+            for (TestCaseStarted testCaseStarted : snapshot.testCaseStartedById.values()) {
+                if (!filter.test(testCaseStarted)) {
+                    continue;
+                }
+                included.testCaseStartedIds.add(testCaseStarted.getId());
+                included.testCaseIds.add(testCaseStarted.getTestCaseId());
+                TestCase testCase = snapshot.testCaseById.get(testCaseStarted.getTestCaseId());
+                if (testCase == null) {
+                    continue;
+                }
+                included.pickleIds.add(testCase.getPickleId());
+                Pickle pickle = snapshot.pickleById.get(testCase.getPickleId());
+                if (pickle != null) {
+                    included.uris.add(pickle.getUri());
+                }
+            }
+            return included;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Envelope;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Updates a {@link Repository} on a dedicated writer thread, through a ring
+ * buffer.
+ * <p>
+ * An alternative to the {@link AsyncRepositoryUpdater} for many concurrent
+ * producers. Producers claim a slot in a preallocated ring buffer with an
+ * atomic compare-and-set and never take a lock. The writer thread applies
+ * envelopes to the repository in batches, in the order their slots were
+ * claimed. When the ring buffer is full, producers wait for the writer.
+ * <p>
+ * The {@link WaitStrategy} decides how producers and the writer wait,
+ * trading latency against CPU usage.
+ * <p>
+ * The repository is updated while it is being queried. To query it in a
+ * consistent state, query the snapshot returned by {@link #flush()}.
+ */
+public final class RingBufferRepositoryUpdater implements AutoCloseable {
+
+    private static final int MAX_BATCH_SIZE = 256;
+    // Set in the claimed sequence once the updater is closed, no sequence
+    // can be claimed after it
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final Repository repository;
+    private final AtomicReferenceArray<@Nullable Envelope> slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Thread writer;
+    // The next sequence to be claimed by a producer, and CLOSED
+    private final AtomicLong claimed = new AtomicLong();
+    // The next sequence to be applied by the writer
+    private final AtomicLong applied = new AtomicLong();
+    private volatile @Nullable RuntimeException failure;
+
+    public RingBufferRepositoryUpdater(Repository repository) {
+        this(repository, RingBufferRepositoryUpdater::newDaemonThread, 1024, WaitStrategy.PARK);
+    }
+
+    private static Thread newDaemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "cucumber-query-ring-buffer-updater");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @param repository    to update
+     * @param threadFactory used to create the writer thread
+     * @param capacity      the number of slots in the ring buffer, must be a
+     *                      power of two
+     * @param waitStrategy  used by producers and the writer to wait
+     */
+    public RingBufferRepositoryUpdater(Repository repository, ThreadFactory threadFactory, int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, was: " + capacity);
+        }
+        this.repository = requireNonNull(repository);
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.waitStrategy = requireNonNull(waitStrategy);
+        this.writer = requireNonNull(threadFactory).newThread(this::drain);
+        this.writer.start();
+    }
+
+    /**
+     * Submits an envelope to be applied to the repository.
+     * <p>
+     * Waits while the ring buffer is full.
+     *
+     * @throws IllegalStateException when the updater was closed
+     */
+    public void update(Envelope envelope) {
+        requireNonNull(envelope);
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ((sequence & CLOSED) != 0) {
+                throw new IllegalStateException("The updater was closed");
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        long wrapPoint = sequence - slots.length();
+        int idle = 0;
+        while (applied.get() <= wrapPoint) {
+            idle = waitStrategy.idle(idle);
+        }
+        slots.set(index(sequence), envelope);
+    }
+
+    /**
+     * Waits until all envelopes submitted before this method was invoked are
+     * applied to the repository.
+     * <p>
+     * The snapshot contains at least these envelopes, and may contain
+     * envelopes that were submitted concurrently.
+     *
+     * @return a snapshot of the repository
+     * @throws IllegalStateException when the repository could not be updated
+     * @see Repository#snapshot()
+     */
+    public Repository flush() throws InterruptedException {
+        long target = claimed.get() & ~CLOSED;
+        int idle = 0;
+        while (applied.get() < target) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            idle = waitStrategy.idle(idle);
+        }
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw new IllegalStateException("The repository could not be updated", failure);
+        }
+        // Updates hold the lock of the repository, so this is a state in
+        // between two envelopes
+        return repository.snapshot();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private void drain() {
+        int maxBatchSize = Math.min(MAX_BATCH_SIZE, slots.length());
+        List<Envelope> batch = new ArrayList<>(maxBatchSize);
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            Envelope envelope;
+            while (batch.size() < maxBatchSize && (envelope = slots.get(index(next + batch.size()))) != null) {
+                batch.add(envelope);
+            }
+            if (batch.isEmpty()) {
+                if (claimed.get() == (next | CLOSED)) {
+                    return;
+                }
+                idle = waitStrategy.idle(idle);
+                continue;
+            }
+            idle = 0;
+            apply(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                slots.set(index(next + i), null);
+            }
+            next += batch.size();
+            applied.set(next);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Envelope> batch) {
+        for (Envelope envelope : batch) {
+            try {
+                repository.update(envelope);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies all submitted envelopes to the repository and stops the writer
+     * thread.
+     * <p>
+     * Envelopes submitted after the updater started closing are rejected.
+     */
+    @Override
+    public void close() {
+        if ((claimed.getAndUpdate(sequence -> sequence | CLOSED) & CLOSED) != 0) {
+            return;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum WaitStrategy {
+
+        /**
+         * Spin on the CPU. Lowest latency, occupies a core while waiting.
+         */
+        BUSY_SPIN {
+            @Override
+            int idle(int iteration) {
+                Thread.onSpinWait();
+                return iteration;
+            }
+        },
+
+        /**
+         * Spin briefly, then yield to other threads.
+         */
+        YIELD {
+            @Override
+            int idle(int iteration) {
+                if (iteration < SPIN_ITERATIONS) {
+                    Thread.onSpinWait();
+                    return iteration + 1;
+                }
+                Thread.yield();
+                return iteration;
+            }
+        },
+
+        /**
+         * Spin and yield briefly, then park the thread. Highest latency,
+         * least CPU usage while waiting.
+         */
+        PARK {
+            @Override
+            int idle(int iteration) {
+                if (iteration < SPIN_ITERATIONS) {
+                    Thread.onSpinWait();
+                    return iteration + 1;
+                }
+                if (iteration < 2 * SPIN_ITERATIONS) {
+                    Thread.yield();
+                    return iteration + 1;
+                }
+                LockSupport.parkNanos(PARK_NANOS);
+                return iteration;
+            }
+        };
+
+        private static final int SPIN_ITERATIONS = 100;
+        private static final long PARK_NANOS = 50_000;
+
+        /**
+         * Waits once.
+         *
+         * @param iteration the number of times waited so far
+         * @return the number of times waited
+         */
+        abstract int idle(int iteration);
+    }
+}
@@ -0,0 +1,78 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Attachment;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Optional;
+
+/**
+ * An {@link Attachment} as retained by the {@link Repository}.
+ * <p>
+ * The body of an attachment may be compressed or shared with other
+ * attachments. Because messages are immutable, the attachment is then
+ * retained without its body and recreated when it is accessed.
+ *
+ * @see AttachmentBody
+ */
+final class StoredAttachment {
+
+    private final Attachment attachment;
+    private final @Nullable AttachmentBody body;
+
+    private StoredAttachment(Attachment attachment, @Nullable AttachmentBody body) {
+        this.attachment = attachment;
+        this.body = body;
+    }
+
+    static StoredAttachment of(Attachment attachment) {
+        return new StoredAttachment(attachment, null);
+    }
+
+    static StoredAttachment of(Attachment attachment, AttachmentBody body) {
+        return new StoredAttachment(withBody(attachment, ""), body);
+    }
+
+    private static Attachment withBody(Attachment attachment, String body) {
+        return new Attachment(
+                body,
+                attachment.getContentEncoding(),
+                attachment.getFileName().orElse(null),
+                attachment.getMediaType(),
+                attachment.getSource().orElse(null),
+                attachment.getTestCaseStartedId().orElse(null),
+                attachment.getTestStepId().orElse(null),
+                attachment.getUrl().orElse(null),
+                attachment.getTestRunStartedId().orElse(null),
+                attachment.getTestRunHookStartedId().orElse(null),
+                attachment.getTimestamp().orElse(null)
+        );
+    }
+
+    /**
+     * The attachment, with its body.
+     */
+    Attachment attachment() {
+        if (body == null) {
+            return attachment;
+        }
+        return withBody(attachment, body.content());
+    }
+
+    /**
+     * The attachment, without its body when the body is stored separately.
+     */
+    Attachment metadata() {
+        return attachment;
+    }
+
+    /**
+     * The body, when it is stored separately.
+     */
+    @Nullable AttachmentBody body() {
+        return body;
+    }
+
+    Optional<String> testStepId() {
+        return attachment.getTestStepId();
+    }
+}
@@ -0,0 +1,83 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A summary of the final attempts of the test cases in an element of a
+ * {@link io.cucumber.messages.types.GherkinDocument}.
+ *
+ * @see Repository.RepositoryFeature#INCLUDE_SUMMARIES
+ * @see Query#findSummaryBy(io.cucumber.messages.types.Feature)
+ */
+public final class Summary {
+
+    static final Summary EMPTY = new Summary(new long[TestStepResultStatus.values().length], 0, 0);
+
+    private final long[] statusCounts;
+    private final long testCaseCount;
+    private final long durationNanos;
+
+    private Summary(long[] statusCounts, long testCaseCount, long durationNanos) {
+        this.statusCounts = statusCounts;
+        this.testCaseCount = testCaseCount;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Adds a test case to this summary.
+     *
+     * @param status        the most severe status of the test steps of the
+     *                      test case, null if it has no test steps
+     * @param durationNanos the duration of the test case
+     * @return a new summary
+     */
+    Summary add(@Nullable TestStepResultStatus status, long durationNanos) {
+        long[] statusCounts = this.statusCounts.clone();
+        if (status != null) {
+            statusCounts[status.ordinal()]++;
+        }
+        return new Summary(statusCounts, testCaseCount + 1, this.durationNanos + durationNanos);
+    }
+
+    /**
+     * The number of test cases by the most severe status of their test
+     * steps.
+     * <p>
+     * Contains all statuses. Test cases without test steps are not counted.
+     *
+     * @see Query#countMostSevereTestStepResultStatus()
+     */
+    public Map<TestStepResultStatus, Long> statusCounts() {
+        Map<TestStepResultStatus, Long> counts = new EnumMap<>(TestStepResultStatus.class);
+        for (TestStepResultStatus status : TestStepResultStatus.values()) {
+            counts.put(status, statusCounts[status.ordinal()]);
+        }
+        return counts;
+    }
+
+    /**
+     * The number of test cases.
+     */
+    public long testCaseCount() {
+        return testCaseCount;
+    }
+
+    /**
+     * The total duration of the test cases.
+     */
+    public Duration duration() {
+        return Duration.ofNanos(durationNanos);
+    }
+
+    /**
+     * The total duration of the test cases, in nanoseconds.
+     */
+    public long durationNanos() {
+        return durationNanos;
+    }
+}
@@ -0,0 +1,34 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Timestamp;
+
+/**
+ * The start and finish of a test case, in nanoseconds since the epoch.
+ * <p>
+ * Kept as primitives so durations can be computed without converting
+ * timestamps or allocating objects.
+ */
+record TestCaseTiming(long startedNanos, long finishedNanos) {
+
+    private static final long UNFINISHED = Long.MIN_VALUE;
+
+    static TestCaseTiming started(Timestamp started) {
+        return new TestCaseTiming(toEpochNanos(started), UNFINISHED);
+    }
+
+    TestCaseTiming finish(Timestamp finished) {
+        return new TestCaseTiming(startedNanos, toEpochNanos(finished));
+    }
+
+    boolean isFinished() {
+        return finishedNanos != UNFINISHED;
+    }
+
+    long durationNanos() {
+        return finishedNanos - startedNanos;
+    }
+
+    static long toEpochNanos(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000_000L + timestamp.getNanos();
+    }
+}
@@ -0,0 +1,139 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.Pickle;
+import io.cucumber.messages.types.PickleStep;
+import io.cucumber.messages.types.Step;
+import io.cucumber.messages.types.TestCase;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestStep;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepResult;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An immutable view of a {@link TestCaseStarted} joined with the messages
+ * commonly used to report it.
+ *
+ * @see Query#findTestCaseViewBy(TestCaseStarted)
+ */
+public final class TestCaseView {
+
+    private final TestCaseStarted testCaseStarted;
+    private final @Nullable TestCaseFinished testCaseFinished;
+    private final TestCase testCase;
+    private final Pickle pickle;
+    private final @Nullable Lineage lineage;
+    private final List<Entry<TestStepFinished, TestStep>> testStepFinishedAndTestSteps;
+    private final Map<String, PickleStep> pickleStepByTestStepId;
+    private final Map<String, Step> stepByPickleStepId;
+    private final @Nullable TestStepResult mostSevereTestStepResult;
+    private final @Nullable Duration duration;
+
+    private TestCaseView(TestCaseStarted testCaseStarted, @Nullable TestCaseFinished testCaseFinished, TestCase testCase, Pickle pickle, @Nullable Lineage lineage, List<Entry<TestStepFinished, TestStep>> testStepFinishedAndTestSteps, Map<String, PickleStep> pickleStepByTestStepId, Map<String, Step> stepByPickleStepId, @Nullable TestStepResult mostSevereTestStepResult, @Nullable Duration duration) {
+        this.testCaseStarted = requireNonNull(testCaseStarted);
+        this.testCaseFinished = testCaseFinished;
+        this.testCase = requireNonNull(testCase);
+        this.pickle = requireNonNull(pickle);
+        this.lineage = lineage;
+        this.testStepFinishedAndTestSteps = unmodifiableList(testStepFinishedAndTestSteps);
+        this.pickleStepByTestStepId = pickleStepByTestStepId;
+        this.stepByPickleStepId = stepByPickleStepId;
+        this.mostSevereTestStepResult = mostSevereTestStepResult;
+        this.duration = duration;
+    }
+
+    static Optional<TestCaseView> of(Query query, TestCaseStarted testCaseStarted) {
+        return query.findTestCaseBy(testCaseStarted)
+                .flatMap(testCase -> query.findPickleBy(testCase)
+                        .map(pickle -> of(query, testCaseStarted, testCase, pickle)));
+    }
+
+    private static TestCaseView of(Query query, TestCaseStarted testCaseStarted, TestCase testCase, Pickle pickle) {
+        Map<String, PickleStep> pickleStepByTestStepId = new HashMap<>();
+        Map<String, Step> stepByPickleStepId = new HashMap<>();
+        for (TestStep testStep : testCase.getTestSteps()) {
+            query.findPickleStepBy(testStep).ifPresent(pickleStep -> {
+                pickleStepByTestStepId.put(testStep.getId(), pickleStep);
+                query.findStepBy(pickleStep).ifPresent(step -> stepByPickleStepId.put(pickleStep.getId(), step));
+            });
+        }
+        return new TestCaseView(
+                testCaseStarted,
+                query.findTestCaseFinishedBy(testCaseStarted).orElse(null),
+                testCase,
+                pickle,
+                query.findLineageBy(pickle).orElse(null),
+                query.findTestStepFinishedAndTestStepBy(testCaseStarted),
+                pickleStepByTestStepId,
+                stepByPickleStepId,
+                query.findMostSevereTestStepResultBy(testCaseStarted).orElse(null),
+                query.findTestCaseDurationBy(testCaseStarted).orElse(null)
+        );
+    }
+
+    public TestCaseStarted testCaseStarted() {
+        return testCaseStarted;
+    }
+
+    public Optional<TestCaseFinished> testCaseFinished() {
+        return Optional.ofNullable(testCaseFinished);
+    }
+
+    public TestCase testCase() {
+        return testCase;
+    }
+
+    public Pickle pickle() {
+        return pickle;
+    }
+
+    /**
+     * The lineage of the pickle, only available when
+     * {@link Repository.RepositoryFeature#INCLUDE_GHERKIN_DOCUMENTS} is
+     * enabled.
+     */
+    public Optional<Lineage> lineage() {
+        return Optional.ofNullable(lineage);
+    }
+
+    public List<Entry<TestStepFinished, TestStep>> testStepFinishedAndTestSteps() {
+        return testStepFinishedAndTestSteps;
+    }
+
+    /**
+     * The pickle step of a test step in this test case, if any.
+     */
+    public Optional<PickleStep> pickleStep(TestStep testStep) {
+        requireNonNull(testStep);
+        return Optional.ofNullable(pickleStepByTestStepId.get(testStep.getId()));
+    }
+
+    /**
+     * The Gherkin step of a pickle step in this test case, only available when
+     * {@link Repository.RepositoryFeature#INCLUDE_GHERKIN_DOCUMENTS} is
+     * enabled.
+     */
+    public Optional<Step> step(PickleStep pickleStep) {
+        requireNonNull(pickleStep);
+        return Optional.ofNullable(stepByPickleStepId.get(pickleStep.getId()));
+    }
+
+    public Optional<TestStepResult> mostSevereTestStepResult() {
+        return Optional.ofNullable(mostSevereTestStepResult);
+    }
+
+    public Optional<Duration> duration() {
+        return Optional.ofNullable(duration);
+    }
+}
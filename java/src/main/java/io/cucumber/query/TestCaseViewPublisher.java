@@ -0,0 +1,102 @@
+package io.cucumber.query;
+
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestRunFinished;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes a {@link TestCaseView} for the final attempt of every finished
+ * test case.
+ * <p>
+ * Register the publisher as a {@linkplain Repository.Builder#listener(RepositoryListener) listener}
+ * on the repository. Views are delivered asynchronously, honouring the demand
+ * of each subscriber. The thread updating the repository is never blocked;
+ * when the buffer of a slow subscriber is full, the {@link OverflowPolicy}
+ * decides what happens. Subscribers are completed when the test run finishes.
+ *
+ * <pre>{@code
+ * TestCaseViewPublisher publisher = new TestCaseViewPublisher();
+ * publisher.subscribe(subscriber);
+ * Repository repository = Repository.builder()
+ *         .listener(publisher)
+ *         .build();
+ * }</pre>
+ */
+public final class TestCaseViewPublisher implements Flow.Publisher<TestCaseView>, RepositoryListener, AutoCloseable {
+
+    private final SubmissionPublisher<TestCaseView> publisher;
+    private final OverflowPolicy overflowPolicy;
+
+    public TestCaseViewPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize(), OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param executor          used to deliver views to subscribers
+     * @param maxBufferCapacity the maximum number of views buffered per subscriber
+     * @param overflowPolicy    applied when the buffer of a subscriber is full
+     */
+    public TestCaseViewPublisher(Executor executor, int maxBufferCapacity, OverflowPolicy overflowPolicy) {
+        this.publisher = new SubmissionPublisher<>(requireNonNull(executor), maxBufferCapacity);
+        this.overflowPolicy = requireNonNull(overflowPolicy);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TestCaseView> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void onTestCaseFinished(Query query, TestCaseFinished testCaseFinished) {
+        if (publisher.isClosed()) {
+            return;
+        }
+        // Each view is published once, caching it would only retain it
+        query.findTestCaseStartedBy(testCaseFinished)
+                .flatMap(testCaseStarted -> TestCaseView.of(query, testCaseStarted))
+                .ifPresent(this::offer);
+    }
+
+    private void offer(TestCaseView view) {
+        publisher.offer(view, (subscriber, dropped) -> {
+            if (overflowPolicy == OverflowPolicy.FAIL) {
+                publisher.closeExceptionally(new IllegalStateException(
+                        "Subscriber " + subscriber + " did not keep up, buffer of " + publisher.getMaxBufferCapacity() + " test cases is full"));
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void onTestRunFinished(Query query, TestRunFinished testRunFinished) {
+        close();
+    }
+
+    /**
+     * Completes all subscribers once the views buffered for them are delivered.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    public enum OverflowPolicy {
+
+        /**
+         * Drop the view for a subscriber whose buffer is full.
+         */
+        DROP,
+
+        /**
+         * Complete all subscribers exceptionally when the buffer of any
+         * subscriber is full.
+         */
+        FAIL
+    }
+}
@@ -0,0 +1,27 @@
+package io.cucumber.query;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by JDK Flight Recorder for each message applied to a
+ * {@link Repository}.
+ */
+@Name("io.cucumber.query.Update")
+@Label("Repository Update")
+@Category({"Cucumber", "Query"})
+@Description("A message applied to the repository")
+@StackTrace(false)
+final class UpdateEvent extends jdk.jfr.Event {
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Repository Size")
+    @Description("Number of messages applied to the repository")
+    long repositorySize;
+
+}
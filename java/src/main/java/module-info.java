@@ -1,5 +1,7 @@
 module io.cucumber.query {
     requires org.jspecify;
+    requires jdk.jfr;
+    requires java.management;
     
     requires transitive io.cucumber.messages;
     
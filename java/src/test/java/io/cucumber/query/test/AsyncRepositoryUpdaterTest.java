@@ -0,0 +1,140 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.Timestamp;
+import io.cucumber.query.AsyncRepositoryUpdater;
+import io.cucumber.query.AsyncRepositoryUpdater.OverflowPolicy;
+import io.cucumber.query.Query;
+import io.cucumber.query.Repository;
+import io.cucumber.query.RepositoryListener;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.cucumber.query.test.Messages.randomId;
+import static io.cucumber.query.test.Messages.readMessages;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AsyncRepositoryUpdaterTest {
+
+    @Test
+    void appliesAllEnvelopesBeforeFlushReturns() throws IOException, InterruptedException {
+        Repository repository = Repository.builder().build();
+        Repository expected = Repository.builder().build();
+        List<Envelope> envelopes = readMessages(Paths.get("../testdata/src/examples-tables.ndjson"));
+        envelopes.forEach(expected::update);
+
+        try (AsyncRepositoryUpdater updater = new AsyncRepositoryUpdater(repository)) {
+            envelopes.forEach(updater::update);
+            Repository snapshot = updater.flush();
+
+            assertThat(new Query(snapshot).findAllTestCaseFinished())
+                    .isEqualTo(new Query(expected).findAllTestCaseFinished());
+            assertThat(updater.awaitQuiescence(1, SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void failsWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Repository repository = Repository.builder()
+                .listener(new RepositoryListener() {
+                    @Override
+                    public void onTestCaseFinished(Query query, TestCaseFinished testCaseFinished) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                })
+                .build();
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), false);
+
+        try (AsyncRepositoryUpdater updater = new AsyncRepositoryUpdater(repository, Thread::new, 1, OverflowPolicy.FAIL)) {
+            updater.update(Envelope.of(a));
+            updater.flush();
+            updater.update(Envelope.of(b));
+            started.await();
+            updater.update(Envelope.of(a));
+
+            assertThatThrownBy(() -> updater.update(Envelope.of(b)))
+                    .isInstanceOf(IllegalStateException.class);
+            release.countDown();
+        }
+    }
+
+    @Test
+    void rejectsEnvelopesSubmittedWhileClosing() throws InterruptedException {
+        Repository repository = Repository.builder().build();
+        AsyncRepositoryUpdater updater = new AsyncRepositoryUpdater(repository);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch submitting = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                while (true) {
+                    updater.update(Envelope.of(new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0))));
+                    accepted.incrementAndGet();
+                    submitting.countDown();
+                }
+            } catch (IllegalStateException e) {
+                // The updater was closed
+            }
+        });
+        producer.start();
+        submitting.await();
+
+        updater.close();
+        producer.join();
+
+        assertThat(updater.awaitQuiescence(1, SECONDS)).isTrue();
+        assertThat(new Query(updater.flush()).findAllTestCaseStarted()).hasSize(accepted.get());
+        assertThatThrownBy(() -> updater.update(Envelope.of(new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0)))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("The updater was closed");
+    }
+
+    @Test
+    void closeAppliesSubmittedEnvelopesWithoutInterruptingTheWriter() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Repository repository = Repository.builder()
+                .listener(new RepositoryListener() {
+                    @Override
+                    public void onTestCaseFinished(Query query, TestCaseFinished testCaseFinished) {
+                        started.countDown();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            interrupted.set(true);
+                        }
+                    }
+                })
+                .build();
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), false);
+        TestCaseStarted c = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(1L, 0));
+
+        try (AsyncRepositoryUpdater updater = new AsyncRepositoryUpdater(repository)) {
+            updater.update(Envelope.of(a));
+            updater.update(Envelope.of(b));
+            updater.update(Envelope.of(c));
+            started.await();
+        }
+
+        assertThat(interrupted).isFalse();
+        assertThat(new Query(repository).findAllTestCaseStarted()).containsExactly(a, c);
+    }
+}
@@ -127,6 +127,27 @@ class LineageTest {
         assertThat(lineage.example()).isEmpty();
     }
 
+    @Test
+    void lineagesOfEqualDocumentsAreEqual() throws IOException {
+        List<Envelope> messages = readMessages(Paths.get("../testdata/src/examples-tables.ndjson"));
+        messages.forEach(repository::update);
+        Repository other = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        messages.forEach(other::update);
+        Query otherQuery = new Query(other);
+
+        List<Pickle> pickles = query.findAllPickles();
+        assertThat(pickles).allSatisfy(pickle -> {
+            Lineage lineage = query.findLineageBy(pickle).orElseThrow();
+            Lineage otherLineage = otherQuery.findLineageBy(pickle).orElseThrow();
+            assertThat(lineage).isNotSameAs(otherLineage);
+            assertThat(lineage).isEqualTo(otherLineage);
+            assertThat(lineage).hasSameHashCodeAs(otherLineage);
+        });
+        assertThat(pickles.stream().map(query::findLineageBy).distinct()).hasSize(pickles.size());
+    }
+
     private static @NonNull List<Envelope> readMessages(Path path) throws IOException {
         var in = Files.newInputStream(path);
         var reader = new NdjsonToMessageReader(in, deserializer);
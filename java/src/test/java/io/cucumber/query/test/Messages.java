@@ -0,0 +1,48 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.query.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads the messages in {@code testdata/src}.
+ */
+final class Messages {
+
+    static final NdjsonToMessageReader.Deserializer deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow()::readValue;
+
+    private Messages() {
+    }
+
+    static List<Envelope> readMessages(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return readMessages(in);
+        }
+    }
+
+    static List<Envelope> readMessages(InputStream in) throws IOException {
+        try (var reader = new NdjsonToMessageReader(in, deserializer)) {
+            return reader.lines().toList();
+        }
+    }
+
+    static Repository readRepository(Path path) throws IOException {
+        Repository repository = Repository.builder().build();
+        readMessages(path).forEach(repository::update);
+        return repository;
+    }
+
+    static String randomId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,199 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.Feature;
+import io.cucumber.messages.types.FeatureChild;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.Location;
+import io.cucumber.messages.types.Pickle;
+import io.cucumber.messages.types.Scenario;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepResult;
+import io.cucumber.messages.types.TestStepResultStatus;
+import io.cucumber.messages.types.Timestamp;
+import io.cucumber.query.Lineage;
+import io.cucumber.query.Query;
+import io.cucumber.query.Repository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.LAZY_LINEAGE;
+import static io.cucumber.query.test.Messages.randomId;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The indexes of a repository are persistent maps and vectors. These tests
+ * reach their edge cases through the indexes that use them.
+ */
+class PersistentIndexTest {
+
+    // "Aa" and "BB" have the same hash code, as does any concatenation of them
+    private static final List<String> COLLIDING_IDS = List.of("Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB");
+
+    @Test
+    void retainsMappingsWithCollidingHashCodes() {
+        Repository repository = Repository.builder().build();
+        List<TestCaseStarted> started = new ArrayList<>();
+        for (String id : COLLIDING_IDS) {
+            TestCaseStarted testCaseStarted = testCaseStarted(id, 0);
+            started.add(testCaseStarted);
+            repository.update(Envelope.of(testCaseStarted));
+        }
+        Repository snapshot = repository.snapshot();
+        TestCaseFinished aa = testCaseFinished("Aa", 1);
+        TestCaseFinished bbbb = testCaseFinished("BBBB", 2);
+        repository.update(Envelope.of(aa));
+        repository.update(Envelope.of(bbbb));
+
+        Query query = new Query(repository);
+        assertThat(query.findAllTestCaseStarted()).containsExactlyElementsOf(started);
+        assertThat(query.findTestCaseStartedBy(aa)).contains(started.get(0));
+        assertThat(query.findTestCaseStartedBy(bbbb)).contains(started.get(5));
+        assertThat(query.findTestCaseFinishedBy(started.get(1))).isEmpty();
+        assertThat(query.findTestCaseDurationNanosBy(started.get(0))).hasValue(1_000_000_000L);
+        assertThat(query.findTestCaseDurationNanosBy(started.get(5))).hasValue(2_000_000_000L);
+
+        Query snapshotQuery = new Query(snapshot);
+        assertThat(snapshotQuery.findAllTestCaseStarted()).containsExactlyElementsOf(started);
+        assertThat(snapshotQuery.findTestCaseFinishedBy(started.get(0))).isEmpty();
+        assertThat(snapshotQuery.findTestCaseDurationNanosBy(started.get(5))).isEmpty();
+    }
+
+    @Test
+    void removesMappingsUntilTheMapIsEmpty() {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(LAZY_LINEAGE, true)
+                .build();
+        // The uris collide as well
+        List<String> uris = List.of("Aa.feature", "BB.feature", "c.feature");
+        for (String uri : uris) {
+            repository.update(Envelope.of(gherkinDocument(uri)));
+        }
+        Repository snapshot = repository.snapshot();
+
+        Query query = new Query(repository);
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.get(i);
+            assertThat(query.findLineageBy(pickle(uri)).map(Lineage::document).flatMap(GherkinDocument::getUri))
+                    .contains(uri);
+            assertThat(documentsWithoutLineage(repository)).isEqualTo(uris.size() - i - 1);
+        }
+        repository.update(Envelope.of(gherkinDocument("d.feature")));
+        assertThat(documentsWithoutLineage(repository)).isOne();
+        assertThat(query.findLineageBy(pickle("d.feature"))).isPresent();
+        assertThat(documentsWithoutLineage(repository)).isZero();
+
+        assertThat(documentsWithoutLineage(snapshot)).isEqualTo(uris.size());
+    }
+
+    @Test
+    void growsVectorsPastTwoLevels() {
+        Repository repository = Repository.builder().build();
+        TestCaseStarted testCaseStarted = testCaseStarted(randomId(), 0);
+        repository.update(Envelope.of(testCaseStarted));
+        // A tail of 32 and a root of 32 by 32 elements hold 1056 elements,
+        // the next element adds a level to the root
+        List<TestStepFinished> finished = new ArrayList<>();
+        Repository snapshot = null;
+        for (int i = 0; i < 2000; i++) {
+            if (i == 1056) {
+                snapshot = repository.snapshot();
+            }
+            TestStepFinished testStepFinished = testStepFinished(testCaseStarted.getId(), i);
+            finished.add(testStepFinished);
+            repository.update(Envelope.of(testStepFinished));
+        }
+
+        assertThat(new Query(repository).findTestStepsFinishedBy(testCaseStarted))
+                .containsExactlyElementsOf(finished);
+        assertThat(new Query(snapshot).findTestStepsFinishedBy(testCaseStarted))
+                .containsExactlyElementsOf(finished.subList(0, 1056));
+    }
+
+    @Test
+    void replacesMappingsInsideTheTrie() {
+        Repository repository = Repository.builder().build();
+        List<TestCaseStarted> started = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestCaseStarted testCaseStarted = testCaseStarted(randomId(), i);
+            started.add(testCaseStarted);
+            repository.update(Envelope.of(testCaseStarted));
+        }
+        Repository snapshot = repository.snapshot();
+        // The first timings are no longer in the tail of the insertion order
+        for (int i = 0; i < 10; i++) {
+            repository.update(Envelope.of(testCaseFinished(started.get(i).getId(), i + 1)));
+        }
+
+        Query query = new Query(repository);
+        assertThat(query.findAllTestCaseStarted()).containsExactlyElementsOf(started);
+        for (int i = 0; i < 10; i++) {
+            assertThat(query.findTestCaseDurationNanosBy(started.get(i))).hasValue(1_000_000_000L);
+        }
+        assertThat(query.findTestCaseDurationNanosBy(started.get(10))).isEmpty();
+
+        Query snapshotQuery = new Query(snapshot);
+        assertThat(snapshotQuery.findAllTestCaseStarted()).containsExactlyElementsOf(started);
+        assertThat(snapshotQuery.findTestCaseDurationNanosBy(started.get(0))).isEmpty();
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterChanges() {
+        Repository repository = Repository.builder().build();
+        TestCaseStarted a = testCaseStarted(randomId(), 0);
+        TestStepFinished aStep = testStepFinished(a.getId(), 0);
+        repository.update(Envelope.of(a));
+        repository.update(Envelope.of(aStep));
+        Repository snapshot = repository.snapshot();
+
+        TestCaseStarted b = testCaseStarted(randomId(), 1);
+        repository.update(Envelope.of(testStepFinished(a.getId(), 1)));
+        repository.update(Envelope.of(testCaseFinished(a.getId(), 2)));
+        repository.update(Envelope.of(b));
+
+        Query snapshotQuery = new Query(snapshot);
+        assertThat(snapshotQuery.findAllTestCaseStarted()).containsExactly(a);
+        assertThat(snapshotQuery.findTestStepsFinishedBy(a)).containsExactly(aStep);
+        assertThat(snapshotQuery.findTestCaseFinishedBy(a)).isEmpty();
+        assertThat(snapshotQuery.findTestCaseDurationNanosBy(a)).isEmpty();
+
+        Query query = new Query(repository);
+        assertThat(query.findAllTestCaseStarted()).containsExactly(a, b);
+        assertThat(query.findTestStepsFinishedBy(a)).hasSize(2);
+        assertThat(query.findTestCaseDurationNanosBy(a)).hasValue(2_000_000_000L);
+    }
+
+    private static int documentsWithoutLineage(Repository repository) {
+        return repository.statistics().indexSizes().get("gherkinDocumentWithoutLineageByUri");
+    }
+
+    private static TestCaseStarted testCaseStarted(String id, long seconds) {
+        return new TestCaseStarted(0L, id, randomId(), "main", new Timestamp(seconds, 0));
+    }
+
+    private static TestCaseFinished testCaseFinished(String testCaseStartedId, long seconds) {
+        return new TestCaseFinished(testCaseStartedId, new Timestamp(seconds, 0), false);
+    }
+
+    private static TestStepFinished testStepFinished(String testCaseStartedId, long seconds) {
+        TestStepResult result = new TestStepResult(new io.cucumber.messages.types.Duration(0L, 0), null, TestStepResultStatus.PASSED, null);
+        return new TestStepFinished(testCaseStartedId, randomId(), result, new Timestamp(seconds, 0));
+    }
+
+    private static GherkinDocument gherkinDocument(String uri) {
+        Scenario scenario = new Scenario(new Location(2L, 3L), emptyList(), "Scenario", "", "", emptyList(), emptyList(), uri + "#scenario");
+        Feature feature = new Feature(new Location(1L, 1L), emptyList(), "en", "Feature", uri, "", List.of(new FeatureChild(null, null, scenario)));
+        return new GherkinDocument(uri, feature, emptyList());
+    }
+
+    private static Pickle pickle(String uri) {
+        return new Pickle(randomId(), uri, new Location(2L, 3L), "", "en", emptyList(), emptyList(), List.of(uri + "#scenario"));
+    }
+}
@@ -1,17 +1,36 @@
 package io.cucumber.query.test;
 
 import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.TestCase;
 import io.cucumber.messages.types.TestCaseFinished;
 import io.cucumber.messages.types.TestCaseStarted;
 import io.cucumber.messages.types.Timestamp;
+import io.cucumber.query.ConcurrencyProfile;
+import io.cucumber.query.Lineage;
 import io.cucumber.query.Query;
 import io.cucumber.query.Repository;
+import io.cucumber.query.Summary;
+import io.cucumber.query.TestCaseView;
 import org.junit.jupiter.api.Test;
 
-import java.util.UUID;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.stream.Stream;
 
+import static io.cucumber.query.Repository.RepositoryFeature.CANONICALIZE_VALUES;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_SUMMARIES;
+import static io.cucumber.query.Repository.RepositoryFeature.OMIT_DESCRIPTIONS_AND_COMMENTS;
+import static io.cucumber.query.test.Messages.randomId;
+import static io.cucumber.query.test.Messages.readMessages;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 
 class QueryTest {
 
@@ -49,8 +68,189 @@ class QueryTest {
         assertThat(query.countTestCasesStarted()).isEqualTo(1);
     }
 
-    private static String randomId() {
-        return UUID.randomUUID().toString();
+    @Test
+    void updatesMemoizedResultsWhenRepositoryIsUpdated() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), true);
+
+        repository.update(Envelope.of(a));
+        assertThat(query.findAllTestCaseStarted()).containsExactly(a);
+        assertThat(query.findAllTestCaseStarted()).containsExactly(a);
+
+        repository.update(Envelope.of(b));
+        assertThat(query.findAllTestCaseStarted()).isEmpty();
+        assertThat(query.countTestCasesStarted()).isZero();
+    }
+
+    @Test
+    void findsAndCachesTestCaseViewOfFinishedTestCase() throws IOException {
+        readMessages(Paths.get("../testdata/src/minimal.ndjson")).forEach(repository::update);
+        TestCaseStarted testCaseStarted = query.findAllTestCaseStarted().get(0);
+
+        TestCaseView view = query.findTestCaseViewBy(testCaseStarted).orElseThrow();
+
+        assertThat(view.testCaseStarted()).isEqualTo(testCaseStarted);
+        assertThat(view.testCase()).isEqualTo(query.findTestCaseBy(testCaseStarted).orElseThrow());
+        assertThat(view.pickle()).isEqualTo(query.findPickleBy(testCaseStarted).orElseThrow());
+        assertThat(view.testStepFinishedAndTestSteps()).isEqualTo(query.findTestStepFinishedAndTestStepBy(testCaseStarted));
+        assertThat(view.mostSevereTestStepResult()).isEqualTo(query.findMostSevereTestStepResultBy(testCaseStarted));
+        assertThat(view.duration()).isEqualTo(query.findTestCaseDurationBy(testCaseStarted));
+        assertThat(query.findTestCaseViewBy(testCaseStarted)).containsSame(view);
+    }
+
+    @Test
+    void findsAttemptsOfTestCase() throws IOException {
+        readMessages(Paths.get("../testdata/src/retry.ndjson")).forEach(repository::update);
+
+        assertThat(query.findAllTestCases()).allSatisfy(testCase -> {
+            List<TestCaseStarted> attempts = query.findAttemptsBy(testCase);
+            assertThat(attempts).isNotEmpty();
+            assertThat(query.findFinalAttemptBy(testCase)).contains(attempts.get(attempts.size() - 1));
+        });
+        assertThat(query.findAllTestCases())
+                .map(query::findAttemptsBy)
+                .map(List::size)
+                .containsExactly(1, 2, 3, 3);
+    }
+
+    @Test
+    void findsNoFinalAttemptWhileTestCaseIsRetried() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(1L, 0), true);
+        TestCaseStarted c = new TestCaseStarted(1L, randomId(), a.getTestCaseId(), "main", new Timestamp(1L, 0));
+        TestCase testCase = new TestCase(a.getTestCaseId(), randomId(), List.of(), null);
+
+        Stream.of(Envelope.of(testCase), Envelope.of(a), Envelope.of(b), Envelope.of(c))
+                .forEach(repository::update);
+
+        assertThat(query.findAllTestCaseStarted()).containsExactly(c);
+        assertThat(query.findAttemptsBy(testCase)).containsExactly(a, c);
+        assertThat(query.findFinalAttemptBy(testCase)).isEmpty();
+
+        repository.update(Envelope.of(new TestCaseFinished(c.getId(), new Timestamp(2L, 0), false)));
+
+        assertThat(query.findFinalAttemptBy(testCase)).contains(c);
+    }
+
+    @Test
+    void computesConcurrencyProfile() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(2L, 0), false);
+        TestCaseStarted c = new TestCaseStarted(0L, randomId(), randomId(), "worker-2", new Timestamp(1L, 0));
+        TestCaseFinished d = new TestCaseFinished(c.getId(), new Timestamp(3L, 0), false);
+        TestCaseStarted e = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(2L, 0));
+        TestCaseFinished f = new TestCaseFinished(e.getId(), new Timestamp(4L, 0), false);
+
+        Stream.of(Envelope.of(a), Envelope.of(c), Envelope.of(b), Envelope.of(e), Envelope.of(d), Envelope.of(f))
+                .forEach(repository::update);
+
+        ConcurrencyProfile profile = query.findConcurrencyProfile().orElseThrow();
+        assertThat(profile.runningTestCases()).containsExactly(
+                entry(Instant.ofEpochSecond(0), 1),
+                entry(Instant.ofEpochSecond(1), 2),
+                entry(Instant.ofEpochSecond(2), 2),
+                entry(Instant.ofEpochSecond(3), 1),
+                entry(Instant.ofEpochSecond(4), 0));
+        assertThat(profile.maxRunningTestCases()).isEqualTo(2);
+        assertThat(profile.duration()).isEqualTo(Duration.ofSeconds(4));
+        assertThat(profile.busyTimeByWorker()).containsExactly(
+                entry("worker-1", Duration.ofSeconds(4)),
+                entry("worker-2", Duration.ofSeconds(2)));
+        assertThat(profile.idleTimeByWorker()).containsExactly(
+                entry("worker-1", Duration.ZERO),
+                entry("worker-2", Duration.ofSeconds(2)));
+        assertThat(profile.parallelEfficiency()).isEqualTo(0.75);
+    }
+
+    @Test
+    void findsTestCasesStartedByWorker() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(2L, 0), false);
+        TestCaseStarted c = new TestCaseStarted(0L, randomId(), randomId(), "worker-2", new Timestamp(1L, 0));
+        TestCaseStarted d = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(2L, 0));
+        TestCaseFinished e = new TestCaseFinished(d.getId(), new Timestamp(5L, 0), false);
+
+        Stream.of(Envelope.of(a), Envelope.of(c), Envelope.of(b), Envelope.of(d), Envelope.of(e))
+                .forEach(repository::update);
+
+        assertThat(query.findAllWorkerIds()).containsExactly("worker-1", "worker-2");
+        assertThat(query.findTestCaseStartedBy("worker-1")).containsExactly(a, d);
+        assertThat(query.findTestCaseStartedBy("worker-3")).isEmpty();
+        assertThat(query.findTotalTestCaseDurationBy("worker-1")).isEqualTo(Duration.ofSeconds(5));
+        assertThat(query.findTotalTestCaseDurationBy("worker-2")).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void findsDurationsInNanos() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(1L, 500));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(3L, 0), true);
+        TestCaseStarted c = new TestCaseStarted(1L, randomId(), a.getTestCaseId(), "main", new Timestamp(3L, 0));
+        TestCaseFinished d = new TestCaseFinished(c.getId(), new Timestamp(4L, 250), false);
+        TestCaseStarted e = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(4L, 0));
+
+        Stream.of(Envelope.of(a), Envelope.of(b), Envelope.of(c), Envelope.of(d), Envelope.of(e))
+                .forEach(repository::update);
+
+        assertThat(query.findTestCaseDurationNanosBy(a)).hasValue(1_999_999_500L);
+        assertThat(query.findTestCaseDurationNanosBy(d)).hasValue(1_000_000_250L);
+        assertThat(query.findTestCaseDurationNanosBy(e)).isEmpty();
+        assertThat(query.findTestCaseDurationBy(c)).contains(Duration.ofNanos(1_000_000_250L));
+        assertThat(query.findTotalTestCaseDurationNanos()).isEqualTo(1_000_000_250L);
+    }
+
+    @Test
+    void summarizesTestCasesAtEveryLevelOfTheLineage() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(INCLUDE_SUMMARIES, true)
+                .build();
+        Query query = new Query(repository);
+        readMessages(Paths.get("../testdata/src/examples-tables.ndjson")).forEach(repository::update);
+
+        Lineage lineage = query.findLineageBy(query.findAllPickles().get(0)).orElseThrow();
+        Summary documentSummary = query.findSummaryBy(lineage.document()).orElseThrow();
+        assertThat(documentSummary.testCaseCount()).isEqualTo(query.findAllTestCaseFinished().size());
+        assertThat(documentSummary.statusCounts()).isEqualTo(query.countMostSevereTestStepResultStatus());
+        assertThat(documentSummary.durationNanos()).isEqualTo(query.findTotalTestCaseDurationNanos());
+        assertThat(query.findSummaryBy(lineage.feature().orElseThrow())).containsSame(documentSummary);
+
+        Summary scenarioSummary = query.findSummaryBy(lineage.scenario().orElseThrow()).orElseThrow();
+        long examplesTestCaseCount = lineage.scenario().orElseThrow().getExamples().stream()
+                .map(query::findSummaryBy)
+                .flatMap(Optional::stream)
+                .mapToLong(Summary::testCaseCount)
+                .sum();
+        assertThat(scenarioSummary.testCaseCount()).isEqualTo(examplesTestCaseCount);
+    }
+
+    @Test
+    void findsSummaryOfAFeatureThatIsNotRetained() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(INCLUDE_SUMMARIES, true)
+                .feature(OMIT_DESCRIPTIONS_AND_COMMENTS, true)
+                .feature(CANONICALIZE_VALUES, true)
+                .build();
+        Query query = new Query(repository);
+        List<Envelope> messages = readMessages(Paths.get("../testdata/src/examples-tables.ndjson"));
+        messages.forEach(repository::update);
+
+        GherkinDocument document = messages.stream()
+                .flatMap(envelope -> envelope.getGherkinDocument().stream())
+                .findFirst()
+                .orElseThrow();
+        assertThat(query.findSummaryBy(document.getFeature().orElseThrow()))
+                .isEqualTo(query.findSummaryBy(document));
+        assertThat(query.findSummaryBy(document)).isPresent();
+    }
+
+    @Test
+    void summariesRequireGherkinDocuments() {
+        Repository.Builder builder = Repository.builder()
+                .feature(INCLUDE_SUMMARIES, true);
+
+        assertThatThrownBy(builder::build)
+                .isInstanceOf(IllegalStateException.class);
     }
 
 }
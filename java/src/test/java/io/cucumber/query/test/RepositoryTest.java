@@ -0,0 +1,651 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.MessageToNdjsonWriter;
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.AttachmentContentEncoding;
+import io.cucumber.messages.types.Duration;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestRunStarted;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepResult;
+import io.cucumber.messages.types.TestStepResultStatus;
+import io.cucumber.messages.types.Timestamp;
+import io.cucumber.query.NdjsonToRepositoryReader;
+import io.cucumber.query.PartitionedRepository;
+import io.cucumber.query.Query;
+import io.cucumber.query.Repository;
+import io.cucumber.query.RepositoryListener;
+import io.cucumber.query.RepositoryMetrics;
+import io.cucumber.query.RepositoryStatistics;
+import io.cucumber.query.RepositoryToNdjsonWriter;
+import org.junit.jupiter.api.Test;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_ABSENT;
+import static io.cucumber.query.Repository.RepositoryFeature.CANONICALIZE_VALUES;
+import static io.cucumber.query.Repository.RepositoryFeature.COMPRESS_ATTACHMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.DEDUPLICATE_ATTACHMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_ATTACHMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.LAZY_LINEAGE;
+import static io.cucumber.query.Repository.RepositoryFeature.OMIT_DESCRIPTIONS_AND_COMMENTS;
+import static io.cucumber.query.Repository.RepositoryFeature.OMIT_STEP_ARGUMENTS;
+import static io.cucumber.query.test.Messages.deserializer;
+import static io.cucumber.query.test.Messages.randomId;
+import static io.cucumber.query.test.Messages.readMessages;
+import static io.cucumber.query.test.Messages.readRepository;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RepositoryTest {
+
+    private static final JsonMapper jsonMapper = JsonMapper.builder()
+            .changeDefaultPropertyInclusion(value -> value
+                    .withContentInclusion(NON_ABSENT)
+                    .withValueInclusion(NON_ABSENT)
+            )
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+    private static final MessageToNdjsonWriter.Serializer serializer = jsonMapper::writeValue;
+
+    @Test
+    void notifiesListenersOfFinalTestCaseFinished() {
+        List<TestCaseStarted> finished = new ArrayList<>();
+        Repository repository = Repository.builder()
+                .listener(new RepositoryListener() {
+                    @Override
+                    public void onTestCaseFinished(Query query, TestCaseFinished testCaseFinished) {
+                        query.findTestCaseStartedBy(testCaseFinished).ifPresent(finished::add);
+                    }
+                })
+                .build();
+
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), true);
+        TestCaseStarted c = new TestCaseStarted(1L, randomId(), a.getTestCaseId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished d = new TestCaseFinished(c.getId(), new Timestamp(0L, 0), false);
+
+        Stream.of(Envelope.of(a), Envelope.of(b), Envelope.of(c), Envelope.of(d))
+                .forEach(repository::update);
+
+        assertThat(finished).containsExactly(c);
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterUpdates() {
+        Repository repository = Repository.builder().build();
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), true);
+        TestCaseStarted c = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+
+        repository.update(Envelope.of(a));
+        Repository snapshot = repository.snapshot();
+        repository.update(Envelope.of(b));
+        repository.update(Envelope.of(c));
+
+        assertThat(new Query(snapshot).findAllTestCaseStarted()).containsExactly(a);
+        assertThat(new Query(repository).findAllTestCaseStarted()).containsExactly(c);
+        assertThatThrownBy(() -> snapshot.update(Envelope.of(c)))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterAppends() {
+        Repository repository = Repository.builder().build();
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseStarted b = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(1L, 0));
+
+        repository.update(Envelope.of(a));
+        Repository snapshot = repository.snapshot();
+        repository.update(Envelope.of(b));
+
+        assertThat(new Query(snapshot).findTestCaseStartedBy("main")).containsExactly(a);
+        assertThat(new Query(repository).findTestCaseStartedBy("main")).containsExactly(a, b);
+    }
+
+    @Test
+    void measuresIndexesAndMessages() {
+        Repository repository = Repository.builder().build();
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseFinished b = new TestCaseFinished(a.getId(), new Timestamp(0L, 0), false);
+
+        repository.update(Envelope.of(a));
+        repository.update(Envelope.of(b));
+
+        RepositoryStatistics statistics = repository.statistics();
+        assertThat(statistics.indexSizes())
+                .containsEntry("testCaseStartedById", 1)
+                .containsEntry("testCaseFinishedByTestCaseStartedId", 1)
+                .containsEntry("pickleById", 0);
+        assertThat(statistics.messageCounts())
+                .containsOnlyKeys("testCaseStarted", "testCaseFinished");
+        assertThat(statistics.estimatedIndexBytes().get("testCaseStartedById")).isPositive();
+        assertThat(statistics.attachmentBytes()).isZero();
+        assertThat(statistics.estimatedBytes()).isPositive();
+    }
+
+    @Test
+    void publishesMetrics() throws JMException {
+        Repository repository = Repository.builder().build();
+        Query query = new Query(repository);
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        repository.update(Envelope.of(a));
+
+        try (RepositoryMetrics metrics = new RepositoryMetrics(repository, query)) {
+            metrics.register("repository-test");
+            query.findAllTestCaseStarted();
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.cucumber.query:type=Repository,name=\"repository-test\"");
+            assertThat(server.getAttribute(name, "EnvelopeCount")).isEqualTo(1L);
+            assertThat(server.getAttribute(name, "InFlightTestCaseCount")).isEqualTo(1);
+            assertThat(metrics.getCumulativeQueryNanos()).containsKey("findAllTestCaseStarted");
+        }
+    }
+
+    @Test
+    void readingTheEnvelopeRateDoesNotResetIt() {
+        Repository repository = Repository.builder().build();
+        try (RepositoryMetrics metrics = new RepositoryMetrics(repository, new Query(repository))) {
+            repository.update(Envelope.of(new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0))));
+
+            assertThat(metrics.getEnvelopesPerSecond()).isPositive();
+            assertThat(metrics.getEnvelopesPerSecond()).isPositive();
+        }
+    }
+
+    @Test
+    void canonicalizesValues() throws IOException {
+        Repository canonicalized = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(CANONICALIZE_VALUES, true)
+                .build();
+        Repository original = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        List<Envelope> messages = readMessages(Paths.get("../testdata/src/examples-tables.ndjson"));
+        messages.forEach(canonicalized::update);
+        messages.forEach(original::update);
+
+        Query query = new Query(canonicalized);
+        assertThat(query.findAllPickles()).isEqualTo(new Query(original).findAllPickles());
+        assertThat(query.findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).isEqualTo(new Query(original).findLineageBy(pickle)));
+        assertThat(canonicalized.statistics().deduplicatedCount()).isPositive();
+        assertThat(canonicalized.statistics().estimatedDeduplicatedBytes()).isPositive();
+        assertThat(original.statistics().deduplicatedCount()).isZero();
+    }
+
+    @Test
+    void deduplicatedBytesAreLessTheCanonicalValues() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(CANONICALIZE_VALUES, true)
+                .build();
+        // Few values are repeated in a single scenario
+        readMessages(Paths.get("../testdata/src/minimal.ndjson")).forEach(repository::update);
+
+        RepositoryStatistics statistics = repository.statistics();
+        assertThat(statistics.deduplicatedCount()).isPositive();
+        assertThat(statistics.estimatedDeduplicatedBytes()).isNegative();
+        assertThat(repository.snapshot().statistics().estimatedDeduplicatedBytes())
+                .isEqualTo(statistics.estimatedDeduplicatedBytes());
+    }
+
+    @Test
+    void retainsProjectionsOfMessages() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(OMIT_STEP_ARGUMENTS, true)
+                .feature(OMIT_DESCRIPTIONS_AND_COMMENTS, true)
+                .testStepResultMessageLength(10)
+                .build();
+        readMessages(Paths.get("../testdata/src/doc-strings.ndjson")).forEach(repository::update);
+        readMessages(Paths.get("../testdata/src/stack-traces.ndjson")).forEach(repository::update);
+
+        Query query = new Query(repository);
+        assertThat(query.findAllPickleSteps())
+                .isNotEmpty()
+                .allSatisfy(pickleStep -> assertThat(pickleStep.getArgument()).isEmpty());
+        assertThat(query.findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).hasValueSatisfying(lineage -> {
+                    assertThat(lineage.document().getComments()).isEmpty();
+                    assertThat(lineage.feature()).hasValueSatisfying(feature ->
+                            assertThat(feature.getDescription()).isEmpty());
+                }));
+        List<String> messages = query.findAllTestStepFinished().stream()
+                .map(TestStepFinished::getTestStepResult)
+                .flatMap(result -> result.getMessage().stream())
+                .toList();
+        assertThat(messages)
+                .isNotEmpty()
+                .allSatisfy(message -> assertThat(message).hasSizeLessThanOrEqualTo(10));
+    }
+
+    @Test
+    void skipsMessagesThatAreNotRetained() throws IOException {
+        Repository repository = Repository.builder().build();
+        List<Envelope> deserialized = new ArrayList<>();
+        NdjsonToRepositoryReader reader = new NdjsonToRepositoryReader(repository, json -> {
+            Envelope envelope = deserializer.readValue(json);
+            deserialized.add(envelope);
+            return envelope;
+        });
+        try (InputStream in = Files.newInputStream(Paths.get("../testdata/src/attachments.ndjson"))) {
+            reader.read(in);
+        }
+
+        assertThat(deserialized)
+                .isNotEmpty()
+                .noneMatch(envelope -> envelope.getAttachment().isPresent())
+                .noneMatch(envelope -> envelope.getSource().isPresent());
+        assertThat(repository.statistics().messageCounts()).containsKey("attachment");
+        assertThat(new Query(repository).findAllTestCaseFinished()).hasSize(
+                new Query(readRepository(Paths.get("../testdata/src/attachments.ndjson"))).findAllTestCaseFinished().size());
+    }
+
+    @Test
+    void writesMessagesThatCanBeReadBack() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        readMessages(Paths.get("../testdata/src/examples-tables.ndjson")).forEach(repository::update);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepositoryToNdjsonWriter(repository, serializer).write(Channels.newChannel(out));
+        Repository copy = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        new NdjsonToRepositoryReader(copy, deserializer).read(new ByteArrayInputStream(out.toByteArray()));
+
+        Query query = new Query(repository);
+        Query copyQuery = new Query(copy);
+        assertThat(copyQuery.findAllPickles()).isEqualTo(query.findAllPickles());
+        assertThat(copyQuery.findAllTestCaseFinished()).isEqualTo(query.findAllTestCaseFinished());
+        assertThat(copyQuery.findAllTestStepFinished()).isEqualTo(query.findAllTestStepFinished());
+        assertThat(copyQuery.findAllPickles()).allSatisfy(pickle ->
+                assertThat(copyQuery.findLineageBy(pickle)).isEqualTo(query.findLineageBy(pickle)));
+    }
+
+    @Test
+    void writesAttachmentsOfTheTestRun() throws IOException {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .build();
+        TestRunStarted testRunStarted = new TestRunStarted(new Timestamp(0L, 0), randomId());
+        Attachment attachment = new Attachment("Hello world", AttachmentContentEncoding.IDENTITY, null, "text/plain", null, null, null, null, testRunStarted.getId(), null, new Timestamp(0L, 0));
+        repository.update(Envelope.of(testRunStarted));
+        repository.update(Envelope.of(attachment));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepositoryToNdjsonWriter(repository, serializer).write(Channels.newChannel(out));
+        Repository copy = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .build();
+        new NdjsonToRepositoryReader(copy, deserializer).read(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream copyOut = new ByteArrayOutputStream();
+        new RepositoryToNdjsonWriter(copy, serializer).write(Channels.newChannel(copyOut));
+
+        assertThat(readMessages(new ByteArrayInputStream(out.toByteArray())))
+                .containsExactly(Envelope.of(testRunStarted), Envelope.of(attachment));
+        assertThat(copyOut.toByteArray()).isEqualTo(out.toByteArray());
+        assertThat(copy.statistics().indexSizes()).containsEntry("attachmentsByTestRunStartedId", 1);
+    }
+
+    @Test
+    void writesFilteredMessages() throws IOException {
+        Repository repository = readRepository(Paths.get("../testdata/src/examples-tables.ndjson"));
+        Query query = new Query(repository);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepositoryToNdjsonWriter(repository, serializer).write(Channels.newChannel(out), testCaseStarted ->
+                query.findMostSevereTestStepResultBy(testCaseStarted)
+                        .map(TestStepResult::getStatus)
+                        .filter(TestStepResultStatus.FAILED::equals)
+                        .isPresent());
+        Repository failures = Repository.builder().build();
+        new NdjsonToRepositoryReader(failures, deserializer).read(new ByteArrayInputStream(out.toByteArray()));
+
+        long failed = query.countMostSevereTestStepResultStatus().get(TestStepResultStatus.FAILED);
+        Query failuresQuery = new Query(failures);
+        assertThat(failed).isPositive();
+        assertThat(failuresQuery.findAllTestCaseFinished()).hasSize((int) failed);
+        assertThat(failuresQuery.findAllTestCases()).hasSize((int) failed);
+        assertThat(failuresQuery.findAllPickles()).hasSize((int) failed);
+        assertThat(failuresQuery.countMostSevereTestStepResultStatus())
+                .containsEntry(TestStepResultStatus.FAILED, failed)
+                .containsEntry(TestStepResultStatus.PASSED, 0L);
+    }
+
+    @Test
+    void mergesRepositories() throws IOException {
+        Repository original = Repository.builder().build();
+        Repository a = Repository.builder().build();
+        Repository b = Repository.builder().build();
+        // Like a test run split in two, both parts execute half the test cases
+        Repository current = null;
+        int testCases = 0;
+        for (Envelope envelope : readMessages(Paths.get("../testdata/src/examples-tables.ndjson"))) {
+            original.update(envelope);
+            if (envelope.getTestCaseStarted().isPresent()) {
+                current = testCases++ % 2 == 0 ? a : b;
+            }
+            if (current == null) {
+                a.update(envelope);
+                b.update(envelope);
+            } else {
+                current.update(envelope);
+            }
+            if (envelope.getTestCaseFinished().isPresent()) {
+                current = null;
+            }
+        }
+
+        Repository merged = Repository.merge(a, b);
+
+        Query query = new Query(merged);
+        assertThat(new Query(a).findAllTestCaseFinished()).isNotEmpty();
+        assertThat(new Query(b).findAllTestCaseFinished()).isNotEmpty();
+        assertThat(query.findAllPickles()).isEqualTo(new Query(original).findAllPickles());
+        assertThat(query.findAllTestCaseFinished()).isEqualTo(new Query(original).findAllTestCaseFinished());
+        assertThat(query.findTestRunStarted()).isEqualTo(new Query(original).findTestRunStarted());
+        assertThat(query.findTestRunFinished()).isEqualTo(new Query(original).findTestRunFinished());
+    }
+
+    @Test
+    void mergeOrdersTestCasesOfEachWorkerByTheTimeTheyStarted() {
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(0L, 0));
+        TestCaseStarted b = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(1L, 0));
+        TestCaseStarted c = new TestCaseStarted(0L, randomId(), randomId(), "worker-2", new Timestamp(2L, 0));
+        TestCaseStarted d = new TestCaseStarted(0L, randomId(), randomId(), "worker-1", new Timestamp(3L, 0));
+        Repository first = Repository.builder().build();
+        Repository second = Repository.builder().build();
+        Stream.of(Envelope.of(b), Envelope.of(c)).forEach(first::update);
+        Stream.of(Envelope.of(a), Envelope.of(d)).forEach(second::update);
+
+        Query query = new Query(Repository.merge(first, second));
+
+        assertThat(query.findAllTestCaseStarted()).containsExactly(a, b, c, d);
+        assertThat(query.findAllWorkerIds()).containsExactly("worker-1", "worker-2");
+        assertThat(query.findTestCaseStartedBy("worker-1")).containsExactly(a, b, d);
+    }
+
+    @Test
+    void mergeIncludesMessagesWithTheSameIdOnce() throws IOException {
+        Repository a = readRepository(Paths.get("../testdata/src/examples-tables.ndjson"));
+
+        Repository merged = Repository.merge(a, a);
+
+        assertThat(new Query(merged).findAllPickles()).isEqualTo(new Query(a).findAllPickles());
+    }
+
+    @Test
+    void mergeCountsMessagesWithTheSameIdOnce() throws IOException {
+        Repository a = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .feature(DEDUPLICATE_ATTACHMENTS, true)
+                .build();
+        readMessages(Paths.get("../testdata/src/attachments.ndjson")).forEach(a::update);
+
+        Repository merged = Repository.merge(a, a);
+
+        Query query = new Query(merged);
+        assertThat(query.findAllTestStepFinished()).isEqualTo(new Query(a).findAllTestStepFinished());
+        assertThat(query.findTotalTestCaseDurationNanos()).isEqualTo(new Query(a).findTotalTestCaseDurationNanos());
+        RepositoryStatistics statistics = merged.statistics();
+        assertThat(statistics.messageCounts()).isEqualTo(a.statistics().messageCounts());
+        assertThat(statistics.attachmentBytes()).isEqualTo(a.statistics().attachmentBytes());
+    }
+
+    @Test
+    void partitionsTestCases() throws IOException {
+        PartitionedRepository partitioned = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .buildPartitioned(4);
+        readMessages(Paths.get("../testdata/src/examples-tables.ndjson")).forEach(partitioned::update);
+        Repository original = readRepository(Paths.get("../testdata/src/examples-tables.ndjson"));
+
+        Query query = new Query(partitioned.snapshot());
+        assertThat(query.findAllPickles()).isEqualTo(new Query(original).findAllPickles());
+        assertThat(query.findAllTestCaseFinished()).isEqualTo(new Query(original).findAllTestCaseFinished());
+        assertThat(query.findAllTestStepFinished()).isEqualTo(new Query(original).findAllTestStepFinished());
+    }
+
+    @Test
+    void reusesPartitionedSnapshotUntilAPartitionIsUpdated() {
+        PartitionedRepository partitioned = Repository.builder().buildPartitioned(4);
+        TestCaseStarted a = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+        TestCaseStarted b = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(1L, 0));
+        partitioned.update(Envelope.of(a));
+
+        Repository snapshot = partitioned.snapshot();
+        assertThat(partitioned.snapshot()).isSameAs(snapshot);
+
+        partitioned.update(Envelope.of(b));
+        Repository updated = partitioned.snapshot();
+        assertThat(updated).isNotSameAs(snapshot);
+        assertThat(new Query(snapshot).findAllTestCaseStarted()).containsExactly(a);
+        assertThat(new Query(updated).findAllTestCaseStarted()).containsExactly(a, b);
+    }
+
+    @Test
+    void partitionsAttemptsOfTestCases() throws IOException {
+        PartitionedRepository partitioned = Repository.builder().buildPartitioned(4);
+        readMessages(Paths.get("../testdata/src/retry.ndjson")).forEach(partitioned::update);
+        Query original = new Query(readRepository(Paths.get("../testdata/src/retry.ndjson")));
+
+        Query query = new Query(partitioned.snapshot());
+        assertThat(query.findAllTestCases()).isNotEmpty().allSatisfy(testCase -> {
+            assertThat(query.findAttemptsBy(testCase)).isEqualTo(original.findAttemptsBy(testCase));
+            assertThat(query.findFinalAttemptBy(testCase)).isEqualTo(original.findFinalAttemptBy(testCase));
+        });
+        assertThat(query.findAllTestCases())
+                .anySatisfy(testCase -> assertThat(query.findAttemptsBy(testCase)).hasSizeGreaterThan(1));
+    }
+
+    @Test
+    void createsLineageWhenFirstQueried() throws IOException {
+        Repository lazy = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(LAZY_LINEAGE, true)
+                .build();
+        Repository eager = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        List<Envelope> messages = readMessages(Paths.get("../testdata/src/examples-tables.ndjson"));
+        messages.forEach(lazy::update);
+        messages.forEach(eager::update);
+
+        assertThat(lazy.statistics().indexSizes())
+                .containsEntry("lineageById", 0)
+                .containsEntry("gherkinDocumentWithoutLineageByUri", 1);
+
+        Query query = new Query(lazy);
+        assertThat(query.findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).isEqualTo(new Query(eager).findLineageBy(pickle)));
+        assertThat(lazy.statistics().indexSizes())
+                .containsEntry("lineageById", eager.statistics().indexSizes().get("lineageById"))
+                .containsEntry("gherkinDocumentWithoutLineageByUri", 0);
+    }
+
+    @Test
+    void createsLineageOfDocumentsAddedAfterAllLineagesWereCreated() throws IOException {
+        Repository lazy = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(LAZY_LINEAGE, true)
+                .build();
+        Repository eager = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        Query query = new Query(lazy);
+        readMessages(Paths.get("../testdata/src/examples-tables.ndjson")).forEach(lazy::update);
+        assertThat(query.findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).isPresent());
+
+        List<Envelope> messages = readMessages(Paths.get("../testdata/src/retry.ndjson"));
+        messages.forEach(lazy::update);
+        messages.forEach(eager::update);
+
+        assertThat(new Query(eager).findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).isEqualTo(new Query(eager).findLineageBy(pickle)));
+    }
+
+    @Test
+    void snapshotCreatesLineageWhenFirstQueried() throws IOException {
+        Repository lazy = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .feature(LAZY_LINEAGE, true)
+                .build();
+        readMessages(Paths.get("../testdata/src/examples-tables.ndjson")).forEach(lazy::update);
+        Repository snapshot = lazy.snapshot();
+
+        Query query = new Query(snapshot);
+        assertThat(query.findAllPickles()).allSatisfy(pickle ->
+                assertThat(query.findLineageBy(pickle)).isPresent());
+        assertThat(snapshot.statistics().indexSizes())
+                .containsEntry("gherkinDocumentWithoutLineageByUri", 0);
+        assertThat(lazy.statistics().indexSizes())
+                .containsEntry("lineageById", 0)
+                .containsEntry("gherkinDocumentWithoutLineageByUri", 1);
+    }
+
+    @Test
+    void compressesAttachmentBodies() {
+        Repository compressed = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .feature(COMPRESS_ATTACHMENTS, true)
+                .attachmentCompressionThreshold(100)
+                .build();
+        Repository uncompressed = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .build();
+        String testCaseStartedId = randomId();
+        String testStepId = randomId();
+        Attachment log = new Attachment("Hello world\n".repeat(1000), AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, testStepId, null, null, null, null);
+        Attachment tiny = new Attachment("Hello world", AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, testStepId, null, null, null, null);
+        TestStepFinished testStepFinished = new TestStepFinished(testCaseStartedId, testStepId, new TestStepResult(new Duration(0L, 0), null, TestStepResultStatus.PASSED, null), new Timestamp(0L, 0));
+        Stream.of(Envelope.of(log), Envelope.of(tiny), Envelope.of(testStepFinished)).forEach(envelope -> {
+            compressed.update(envelope);
+            uncompressed.update(envelope);
+        });
+
+        assertThat(new Query(compressed).findAttachmentsBy(testStepFinished)).containsExactly(log, tiny);
+        assertThat(compressed.statistics().attachmentBytes())
+                .isGreaterThan(tiny.getBody().length())
+                .isLessThan(uncompressed.statistics().attachmentBytes() / 10);
+    }
+
+    @Test
+    void measuresRetainedAttachmentBytes() {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .feature(COMPRESS_ATTACHMENTS, true)
+                .attachmentCompressionThreshold(100)
+                .build();
+        String testCaseStartedId = randomId();
+        Attachment log = new Attachment("Hello world\n".repeat(1000), AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, null, null, null, null, null);
+        Attachment latin1 = new Attachment("Gr\u00fc\u00dfe", AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, null, null, null, null, null);
+        Attachment utf16 = new Attachment("Hello \u4e16\u754c", AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, null, null, null, null, null);
+        Stream.of(log, latin1, utf16).map(Envelope::of).forEach(repository::update);
+
+        // Compressed bytes, one byte per Latin-1 character, two otherwise
+        assertThat(repository.statistics().attachmentBytes()).isEqualTo(
+                deflate(log.getBody()).length + latin1.getBody().length() + 2L * utf16.getBody().length());
+    }
+
+    @Test
+    void deduplicatesCompressedAttachmentBodies() {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .feature(COMPRESS_ATTACHMENTS, true)
+                .feature(DEDUPLICATE_ATTACHMENTS, true)
+                .attachmentCompressionThreshold(100)
+                .build();
+        String log = "environment=ci\n".repeat(100);
+        String tiny = "\u4e16\u754c";
+        List<TestStepFinished> testStepsFinished = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String testCaseStartedId = randomId();
+            String testStepId = randomId();
+            repository.update(Envelope.of(new Attachment(log, AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, testStepId, null, null, null, null)));
+            repository.update(Envelope.of(new Attachment(tiny, AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, testStepId, null, null, null, null)));
+            TestStepFinished testStepFinished = new TestStepFinished(testCaseStartedId, testStepId, new TestStepResult(new Duration(0L, 0), null, TestStepResultStatus.PASSED, null), new Timestamp(0L, 0));
+            repository.update(Envelope.of(testStepFinished));
+            testStepsFinished.add(testStepFinished);
+        }
+
+        Query query = new Query(repository);
+        assertThat(testStepsFinished).allSatisfy(testStepFinished ->
+                assertThat(query.findAttachmentsBy(testStepFinished))
+                        .extracting(Attachment::getBody)
+                        .containsExactly(log, tiny));
+        RepositoryStatistics statistics = repository.statistics();
+        // Each body is retained once, the log compressed
+        assertThat(statistics.attachmentBytes()).isEqualTo(deflate(log).length + 2L * tiny.length());
+        assertThat(statistics.indexSizes()).containsEntry("attachmentBodyByHash", 2);
+    }
+
+    @Test
+    void deduplicatesAttachmentBodies() {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_ATTACHMENTS, true)
+                .feature(DEDUPLICATE_ATTACHMENTS, true)
+                .build();
+        String body = "environment=ci\n".repeat(100);
+        List<TestStepFinished> testStepsFinished = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String testCaseStartedId = randomId();
+            String testStepId = randomId();
+            Attachment attachment = new Attachment(body, AttachmentContentEncoding.IDENTITY, null, "text/plain", null, testCaseStartedId, testStepId, null, null, null, null);
+            TestStepFinished testStepFinished = new TestStepFinished(testCaseStartedId, testStepId, new TestStepResult(new Duration(0L, 0), null, TestStepResultStatus.PASSED, null), new Timestamp(0L, 0));
+            repository.update(Envelope.of(attachment));
+            repository.update(Envelope.of(testStepFinished));
+            testStepsFinished.add(testStepFinished);
+        }
+
+        Query query = new Query(repository);
+        assertThat(testStepsFinished).allSatisfy(testStepFinished ->
+                assertThat(query.findAttachmentsBy(testStepFinished))
+                        .singleElement()
+                        .satisfies(attachment -> assertThat(attachment.getBody()).isEqualTo(body)));
+        RepositoryStatistics statistics = repository.statistics();
+        assertThat(statistics.attachmentBytes()).isEqualTo(body.length());
+        assertThat(statistics.indexSizes()).containsEntry("attachmentBodyByHash", 1);
+    }
+
+    private static byte[] deflate(String content) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(content.getBytes(UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.Timestamp;
+import io.cucumber.query.Query;
+import io.cucumber.query.Repository;
+import io.cucumber.query.RingBufferRepositoryUpdater;
+import io.cucumber.query.RingBufferRepositoryUpdater.WaitStrategy;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.cucumber.query.test.Messages.randomId;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferRepositoryUpdaterTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int TEST_CASES_PER_PRODUCER = 500;
+
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void appliesEnvelopesOfAllProducers(WaitStrategy waitStrategy) throws Exception {
+        Repository repository = Repository.builder().build();
+        Repository snapshot;
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        try (RingBufferRepositoryUpdater updater = new RingBufferRepositoryUpdater(repository, Thread::new, 64, waitStrategy)) {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int i = 0; i < PRODUCERS; i++) {
+                producers.add(executor.submit(() -> {
+                    for (int j = 0; j < TEST_CASES_PER_PRODUCER; j++) {
+                        TestCaseStarted started = new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0));
+                        updater.update(Envelope.of(started));
+                        updater.update(Envelope.of(new TestCaseFinished(started.getId(), new Timestamp(0L, 0), false)));
+                    }
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get();
+            }
+            snapshot = updater.flush();
+        } finally {
+            executor.shutdown();
+        }
+
+        Query query = new Query(snapshot);
+        assertThat(query.findAllTestCaseStarted()).hasSize(PRODUCERS * TEST_CASES_PER_PRODUCER);
+        assertThat(query.findAllTestCaseFinished()).hasSize(PRODUCERS * TEST_CASES_PER_PRODUCER);
+        assertThat(query.findAllTestCaseFinished()).allSatisfy(testCaseFinished ->
+                assertThat(query.findTestCaseStartedBy(testCaseFinished)).isPresent());
+    }
+
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void rejectsEnvelopesSubmittedWhileClosing(WaitStrategy waitStrategy) throws Exception {
+        Repository repository = Repository.builder().build();
+        RingBufferRepositoryUpdater updater = new RingBufferRepositoryUpdater(repository, Thread::new, 64, waitStrategy);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch submitting = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                while (true) {
+                    updater.update(Envelope.of(new TestCaseStarted(0L, randomId(), randomId(), "main", new Timestamp(0L, 0))));
+                    accepted.incrementAndGet();
+                    submitting.countDown();
+                }
+            } catch (IllegalStateException e) {
+                // The updater was closed
+            }
+        });
+        producer.start();
+        submitting.await();
+
+        updater.close();
+        producer.join();
+
+        assertThat(new Query(updater.flush()).findAllTestCaseStarted()).hasSize(accepted.get());
+    }
+}
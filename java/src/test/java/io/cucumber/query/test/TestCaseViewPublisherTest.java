@@ -0,0 +1,70 @@
+package io.cucumber.query.test;
+
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.query.Repository;
+import io.cucumber.query.TestCaseView;
+import io.cucumber.query.TestCaseViewPublisher;
+import io.cucumber.query.TestCaseViewPublisher.OverflowPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+
+import static io.cucumber.query.test.Messages.readMessages;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestCaseViewPublisherTest {
+
+    @Test
+    void publishesFinalAttemptOfEachTestCase() throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        TestCaseViewPublisher publisher = new TestCaseViewPublisher(Runnable::run, 16, OverflowPolicy.DROP);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        publisher.subscribe(subscriber);
+
+        Repository repository = Repository.builder()
+                .listener(publisher)
+                .build();
+        readMessages(Paths.get("../testdata/src/retry.ndjson")).forEach(repository::update);
+
+        subscriber.completed.get(5, SECONDS);
+        assertThat(subscriber.views).hasSize(4);
+        assertThat(subscriber.views).allSatisfy(view -> {
+            assertThat(view.testCaseFinished()).hasValueSatisfying(finished ->
+                    assertThat(finished.getWillBeRetried()).isFalse());
+            assertThat(view.duration()).isPresent();
+            assertThat(view.testCase().getPickleId()).isEqualTo(view.pickle().getId());
+        });
+    }
+
+    private static final class CollectingSubscriber implements Flow.Subscriber<TestCaseView> {
+        final List<TestCaseView> views = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(TestCaseView item) {
+            views.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completed.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed.complete(null);
+        }
+    }
+}
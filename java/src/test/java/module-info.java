@@ -6,4 +6,5 @@ open module io.cucumber.query.test {
     requires io.cucumber.messages.ndjson;
     requires tools.jackson.core;
     requires tools.jackson.databind;
+    requires java.management;
 }